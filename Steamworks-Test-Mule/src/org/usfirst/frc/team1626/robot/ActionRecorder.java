@@ -1,20 +1,21 @@
 package org.usfirst.frc.team1626.robot;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.Notifier;
 import edu.wpi.first.wpilibj.RobotBase;
 import edu.wpi.first.wpilibj.Timer;
@@ -66,28 +67,62 @@ import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 public class ActionRecorder implements Runnable
 {
 	private static final String autoDirName = "/home/lvuser/auto";
+	private static final String logDirName = "/home/lvuser/log";
+	private static final int journalCapacity = 8*1024*1024;
 	private static double ticsPerSecond=1000000.0;
 	
 	private boolean recording=false;
 	private boolean recordingReady=false;
 	private long playbackStart;
+	private long startOffset=0;
+	private long lastPlayedOffset=-1;
+	private String lastPlayed;
 	private List<DriverInput> driverInputs;
+	private Playlist playlist;
 	private Iterator<DriverInput> playbackIterator;
+	private CatchUp.Policy catchUpPolicy=CatchUp.Policy.EXECUTE_ALL;
+	private CatchUp catchUp;
 	private Object playbackObject;
 	private Method playbackMethod;
 	private StateButton upButton;
 	private StateButton downButton;
 	private StateButton recordButton;
 	private List<File> autoFileList;
+	private AutoPack autoPack;
+	private volatile AutoListing pendingListing;
+	private BackgroundWork background;
+	private volatile File preloadTarget;
+	private volatile Preloaded preloaded;
 	private int autoFileIndex;
 	private File fileToRecord=new File(autoDirName + "/" + SmartDashboard.getString("DB/String 0", "new_auto.csv"));
 	private List<String> details;
 	private Notifier nextTask;
 	private int tasksDone;
+	private Telemetry telemetry;
+	private MatchLogWriter logWriter = new MatchLogWriter(new File(logDirName), ".log", 100, 32L*1024*1024, true);
+	private MatchLogWriter recordingWriter = new MatchLogWriter(new File(autoDirName), false);
+	private Future<?> pendingRecording;
+	private File deferredRead;		// the selected routine, while its recording is still being written
+	private RecordingJournal journal;
+	private Future<?> pendingRecovery;
+
+	// The recorder's part of each mode transition, timed step by step
+	private TransitionTimer disabledInitTimer = new TransitionTimer("Recorder Disabled Init", 0.010);
+	private TransitionTimer autonomousInitTimer = new TransitionTimer("Recorder Autonomous Init", 0.020)
+			.budget("Parse", 0.015);
+	private TransitionTimer teleopInitTimer = new TransitionTimer("Recorder Teleop Init", 0.005);
+	private RoutineParser parser = new RoutineParser();
+	private RoutineParser prefetchParser = new RoutineParser();
+	private RoutineParser preloadParser = new RoutineParser();
+	private int timeErrorChannel;
+	private LatencyTracer latencyTracer;
+	private BehaviorDispatcher behaviors;
+	private LatencyCompensation compensation = new LatencyCompensation(new File(LatencyCompensation.defaultFileName));
 	
 	// For timing accuracy measurements
 	
 	private DateTimeFormatter nameFmt = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+	private String codeVersion = codeVersion();
 
 	private long Sx=0;
 	private long Sx2=0;
@@ -95,27 +130,40 @@ public class ActionRecorder implements Runnable
 	private long Sy=0;
 	private long Sy2=0;
 	private long n=0;
+
+	// JIT warm-up results, in nanoseconds
+	private long warmupCycles=0;
+	private long warmupFirst=0;
+	private long warmupSteady=0;
+	// warm-up pass in progress: the parsed inputs, the next to play and the cycle time so far in this pass
+	private boolean warmingUp=false;
+	private List<DriverInput> warmupParsed;
+	private int warmupNext=0;
+	private long warmupPassTime=0;
 	
 	public class StateButton
 	{
 		private int buttonNumber;
-		private XboxController controller;
-		private boolean prevState;
+		private HIDSnapshot controller;
 		
 		public StateButton(XboxController stick, int button)
+		{
+			this(HIDSnapshot.get(stick), button);
+		}
+		
+		public StateButton(HIDSnapshot stick, int button)
 		{
 			controller = stick;
 			buttonNumber = button;
-			prevState = false;
 		}
 		
+		/**
+		 * True on the cycle the button was pressed.  The edge comes from the controller's {@link HIDSnapshot},
+		 * so {@link HIDSnapshot#updateAll} must be called once per cycle.
+		 */
 		public boolean getState()
 		{
-			boolean rv=false;
-			boolean currState=controller.getRawButton(buttonNumber);
-			rv=currState && !prevState;
-			prevState=currState;
-			return rv;			
+			return controller.risingEdge(buttonNumber);
 		}
 	}
 	
@@ -129,7 +177,8 @@ public class ActionRecorder implements Runnable
 
 		@Override
 		public void run() {
-			invokeMethod(input);
+			ThreadConfig.attach("Playback");
+			invokeMethod(due(input));
 			tasksDone++;
 
 			if (playbackIterator.hasNext() &&
@@ -138,16 +187,102 @@ public class ActionRecorder implements Runnable
 				input=playbackIterator.next();
 				
 				double delay = timeToNext(input);
-				System.out.println("After task " + tasksDone + " delay is " + delay);
+				Log.debug("After task {} delay is {}", tasksDone, delay);
 				nextTask.startSingle(delay);
 			}
 		}
 	}
 	
+	/*
+	 * A routine decoded ahead of autonomousInit, with the modification time of the file it came from.
+	 */
+	private static class Preloaded
+	{
+		final File file;
+		final long modified;
+		final List<DriverInput> inputs;
+
+		Preloaded(File file, List<DriverInput> inputs)
+		{
+			this.file=file;
+			this.modified=sourceOf(file).lastModified();
+			this.inputs=inputs;
+		}
+
+		boolean matches(File other)
+		{
+			return file.equals(other) && (modified == sourceOf(other).lastModified());
+		}
+
+		private static File sourceOf(File routine)
+		{
+			return routine.isFile() ? routine : routine.getParentFile();
+		}
+	}
+
 	public ActionRecorder()
 	{
 		recording=false;
 		recordingReady=false;
+		openJournal();
+	}
+
+	/*
+	 * The version written at the top of each playback log, so that logs can be compared across code versions: the
+	 * jar's implementation version if it has one, otherwise the time the code was deployed.
+	 */
+	private String codeVersion()
+	{
+		Package pkg = ActionRecorder.class.getPackage();
+		if ((pkg != null) && (pkg.getImplementationVersion() != null))
+		{
+			return pkg.getImplementationVersion();
+		}
+		try
+		{
+			File code = new File(ActionRecorder.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			return "deployed-" + LocalDateTime.ofInstant(Instant.ofEpochMilli(code.lastModified()),
+					ZoneId.systemDefault()).format(nameFmt);
+		} catch (Exception e) {
+			return "unknown";
+		}
+	}
+
+	/*
+	 * Recordings go through the journal when it can be opened, and are kept in memory otherwise.  A recording
+	 * interrupted by a brownout or crash is copied out of the journal on the next boot.
+	 */
+	private void openJournal()
+	{
+		try
+		{
+			journal=RecordingJournal.open(new File(RecordingJournal.defaultFileName), journalCapacity);
+		} catch (IOException e) {
+			Log.error("Recording journal", e);
+			journal=null;
+			return;
+		}
+
+		if (journal.needsRecovery())
+		{
+			String name=journal.getTarget();
+			if (name.isEmpty() || new File(autoDirName, name).exists())
+			{
+				name="recovered-" + LocalDateTime.now().format(nameFmt) + ".csv";
+			}
+			Log.warn("Recovering {} bytes of an interrupted recording into {}", journal.getLength(), name);
+			RecordingJournal recovered=journal;
+			pendingRecovery = recordingWriter.submit(name, out -> {
+				try
+				{
+					recovered.writeTo(out);
+				} finally
+				{
+					recovered.seal();
+					recovered.clear();
+				}
+			});
+		}
 	}
 
 	@SuppressWarnings("rawtypes")
@@ -157,12 +292,8 @@ public class ActionRecorder implements Runnable
 		try
 		{
 			method = obj.getClass().getMethod(methodName,  args);
-		} catch (NoSuchMethodException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (SecurityException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		} catch (NoSuchMethodException | SecurityException e) {
+			Log.error("No method {} on {}", methodName, obj.getClass().getName(), e);
 		}
 		return method;
 	}
@@ -179,11 +310,83 @@ public class ActionRecorder implements Runnable
 		return this;
 	}
 
+	/**
+	 * Run the robot behavior as concurrent subsystem behaviors, instead of through the behavior method.
+	 */
+	public ActionRecorder setBehaviors(BehaviorDispatcher dispatcher)
+	{
+		behaviors=dispatcher;
+		return this;
+	}
+
+	/**
+	 * Run the rescan of the auto directory and the preloading of the selected routine as budgeted background work
+	 * while disabled.  Without this the rescan is done in disabledInit and routines are read in autonomousInit.
+	 */
+	public ActionRecorder setBackgroundWork(BackgroundWork work)
+	{
+		background=work;
+		return this;
+	}
+
+	private void defer(String name, Runnable task)
+	{
+		if (background != null)
+		{
+			background.submit(name, task);
+		} else
+		{
+			task.run();
+		}
+	}
+
+	/**
+	 * What playback does with overdue inputs; this can be changed on the dashboard at "Auto/Catch Up".
+	 */
+	public ActionRecorder setCatchUp(CatchUp.Policy policy)
+	{
+		catchUpPolicy=policy;
+		return this;
+	}
+
+	private void behave(DriverInput input) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException
+	{
+		Object event = warmingUp ? null : FlightEvents.begin(FlightEvents.ACTUATORS);
+		if (behaviors != null)
+		{
+			behaviors.dispatch(input);
+			FlightEvents.actuators(event, "Dispatcher", behaviors.size());
+		} else
+		{
+			playbackMethod.invoke(playbackObject, input);
+			FlightEvents.actuators(event, "Behavior Method", 1);
+		}
+	}
+
 	public ActionRecorder setController(XboxController stick)
 	{
 		return this;
 	}
 
+	/**
+	 * Publish the timing error of every playback event as a telemetry sample on the given channel.
+	 */
+	public ActionRecorder setTelemetry(Telemetry tlm, int channel)
+	{
+		telemetry=tlm;
+		timeErrorChannel=channel;
+		return this;
+	}
+
+	/**
+	 * Stamp the dispatch of every input to the behavior method on the tracer.
+	 */
+	public ActionRecorder setLatencyTracer(LatencyTracer tracer)
+	{
+		latencyTracer=tracer;
+		return this;
+	}
+
 	public ActionRecorder setUpButton(XboxController stick, int up)
 	{
 		upButton=new StateButton(stick, up);
@@ -249,68 +452,120 @@ public class ActionRecorder implements Runnable
 		SmartDashboard.putString("DB/String 0", name);
 	}
 	
-	private int getAutoFileList()
+	/*
+	 * The routines found by a rescan, put into use on the main thread.
+	 */
+	private static class AutoListing
+	{
+		final List<File> files=new ArrayList<File>();
+		AutoPack pack;
+	}
+
+	private AutoListing getAutoFileList()
 	{
-		autoFileList=new ArrayList<File>();
+		AutoListing listing=new AutoListing();
 		File autoDir = new File(autoDirName);
-		System.out.println("Auto Root is: " + autoDir.getAbsolutePath());
+		Log.info("Auto Root is: {}", autoDir.getAbsolutePath());
 		File[] autoLs = autoDir.listFiles();
-		System.out.println("Containing " + autoLs.length + " files");
-
+		
 		int newIdx=-1;
 
 		if (autoLs != null)
 		{
+			Log.info("Containing {} files", autoLs.length);
 			for (File f : autoLs)
 			{
+				if (f.getName().equals(AutoPack.packFileName) || f.getName().endsWith(ActuatorTimeline.suffix))
+				{
+					continue;
+				}
 				if (f.isFile())
 				{
-					System.out.println("File<" + f.getAbsolutePath() + ">");
+					Log.debug("File<{}>", f.getAbsolutePath());
 					String fName=f.getName();
 					if (fName.matches("new[0-9]+\\.csv"))
 					{
 						int dotPos = fName.indexOf('.', 3);
-						System.out.println("dot pos is " + dotPos);
+						Log.debug("dot pos is {}", dotPos);
 						if (dotPos > 3)
 						{
 							String idx = fName.substring(3, dotPos);
 							int fNum=Integer.parseInt(idx);
-							System.out.println("num<" + idx + ">=" + fNum);
+							Log.debug("num<{}>={}", idx, fNum);
 
 							if (fNum >= newIdx)
 							{
 								newIdx=fNum+1;
-								System.out.println("new index is " + newIdx);
+								Log.debug("new index is {}", newIdx);
 							}
 						}
 					}
 				}
-				autoFileList.add(f);
+				listing.files.add(f);
 			}
 		}
-		return newIdx;
+
+		getAutoPackList(listing, new File(autoDir, AutoPack.packFileName));
+		return listing;
 	}
-	
-	private void writeDriverInputs()
+
+	/*
+	 * Routines in the pack file are listed as children of the pack, only the pack index is read here.
+	 */
+	private void getAutoPackList(AutoListing listing, File packFile)
 	{
+		if (!packFile.isFile())
+		{
+			return;
+		}
+
 		try
 		{
-			System.out.println("WDI: <" + fileToRecord.getAbsolutePath() + ">");
-			BufferedWriter outFile= new BufferedWriter(new FileWriter(fileToRecord));
-			
-			for (DriverInput input: driverInputs)
+			listing.pack=AutoPack.open(packFile);
+			for (AutoPack.Entry entry : listing.pack.entries())
 			{
-				outFile.write(input.toString());
-				outFile.write("\n");
+				Log.debug("Packed<{}>", entry.getName());
+				listing.files.add(new File(packFile, entry.getName()));
 			}
-			
-			outFile.close();
 		} catch (IOException e) {
-			System.out.println(fileToRecord.getAbsolutePath() + ": " + e.toString());
-			e.printStackTrace(System.out);
+			Log.error("{}: {}", packFile.getAbsolutePath(), e);
 		}
 	}
 
+	private boolean isPacked(File autoFile)
+	{
+		return (autoPack != null) && autoPack.getFile().equals(autoFile.getParentFile()) &&
+				autoPack.contains(autoFile.getName());
+	}
+	
+	private void writeDriverInputs()
+	{
+		Log.info("WDI: <{}>", fileToRecord.getAbsolutePath());
+		if ((journal != null) && journal.isOpen())
+		{
+			journal.seal();
+			RecordingJournal sealed=journal;
+			pendingRecording = recordingWriter.submit(fileToRecord.getName(), "writeDriverInputs", out -> {
+				try
+				{
+					sealed.writeTo(out);
+				} finally
+				{
+					sealed.clear();
+				}
+			});
+			return;
+		}
+		List<DriverInput> inputs = driverInputs;
+		pendingRecording = recordingWriter.submit(fileToRecord.getName(), "writeDriverInputs", out -> {
+			for (DriverInput input: inputs)
+			{
+				out.write(input.toString());
+				out.write("\n");
+			}
+		});
+	}
+
 	/*
 	 * m=(n*Sxy - Sx*Sy/(n*Sx2-(Sx)**2)
 	 * b=(Sy-b*Sx)/n
@@ -320,15 +575,18 @@ public class ActionRecorder implements Runnable
 	
 	public void disabledInit()
 	{
-		System.out.println("Entering disabledInit");
+		Log.info("Entering disabledInit");
+		disabledInitTimer.start();
 		
 		if (nextTask != null) {
 			nextTask.stop();
 			nextTask=null;
 		}
+		disabledInitTimer.lap("Stop Notifier");
+		compensation.end();
+		disabledInitTimer.lap("Compensation");
 		
-		System.out.println("n=" + n +
-				" Sx=" + Sx + " Sx2=" + Sx2 + " Sxy=" + Sxy + " Sy=" + Sy + " Sy2=" + Sy2);
+		Log.debug("n={} Sx={} Sx2={} Sxy={} Sy={} Sy2={}", n, Sx, Sx2, Sxy, Sy, Sy2);
 				
 		double m=((double)(n*Sxy - Sx*Sy))/(((double)(n*Sx2))-Math.pow((double)Sx,2));
 		double b=((double)(Sy-m*Sx))/((double)n);
@@ -339,24 +597,65 @@ public class ActionRecorder implements Runnable
 		SmartDashboard.putNumber("Auto/Timing/Intercept", b);
 		SmartDashboard.putNumber("Auto/Timing/Standard Deviation",  sd);
 		SmartDashboard.putNumber("Auto/Timing/Mean",  mean);
+		if (catchUp != null) {
+			catchUp.report();
+			catchUp=null;
+		}
+		disabledInitTimer.lap("Statistics");
 		
 		if (fileToRecord != null) {
-			System.out.println("FileToRecord: <" + fileToRecord.getAbsolutePath() + ">");
+			Log.info("FileToRecord: <{}>", fileToRecord.getAbsolutePath());
 		} else {
-			System.out.println("FileToRecord is null");
+			Log.info("FileToRecord is null");
 		}
 		
 		if (isRecording())
 		{
-			if ((driverInputs != null) && (driverInputs.size() > 0))
+			if (((journal != null) && journal.isOpen() && (journal.getLength() > 0)) ||
+					((driverInputs != null) && (driverInputs.size() > 0) && recordingReady))
 			{
 				writeDriverInputs();
+			} else if ((journal != null) && journal.isOpen())
+			{
+				// Nothing was recorded, so there is no text to copy out or zero
+				journal.seal();
+				journal.clear();
 			}
 		}
 		
 		stopRecording();
+		disabledInitTimer.lap("Write Recording");
+		
+		defer("Rescan", () -> {
+			pendingListing=getAutoFileList();
+		});
+		disabledInitTimer.lap("Rescan");
 		
-		getAutoFileList();
+		if (details != null) {
+			writeDetails();
+			details=null;
+		}
+		disabledInitTimer.lap("Write Details");
+		disabledInitTimer.end();
+	}
+
+	private void writeDetails() {
+		logWriter.submit(LocalDateTime.now().format(nameFmt) + ".log", "writeDetails", details);
+	}
+
+	/*
+	 * Put a rescan into use: select the routine named on the dashboard, and preload it.
+	 */
+	private void useListing(AutoListing listing)
+	{
+		autoFileList=listing.files;
+		autoPack=listing.pack;
+
+		// The recording just submitted may not have been renamed into place yet
+		if ((pendingRecording != null) && !autoFileList.contains(fileToRecord))
+		{
+			autoFileList.add(fileToRecord);
+		}
 
 		autoFileIndex=0;
 		
@@ -372,35 +671,58 @@ public class ActionRecorder implements Runnable
 		
 //		autoFileList.add(new File("/home/lvuser/auto", "new" + String.format("%03d.csv", newIdx)));
 		displayName();
-		
-		if (details != null) {
-			writeDetails();
-			details=null;
-		}
+		preloadSelected();
 	}
 
-	private void writeDetails() {
-
-		try {
-
-			String name = "/home/lvuser/log/" + LocalDateTime.now().format(nameFmt) + ".log";
-
-			BufferedWriter logFile = new BufferedWriter(new FileWriter(name));
-
-			for (String det : details) {
-				logFile.write(det + "\n");
-			}
-			
-			logFile.close();
-			
-		} catch (Exception e) {
-			System.err.println("Error writing to logfile" + e.toString());
+	/*
+	 * Decode the selected routine in the background, so that autonomousInit does not have to.  Only the latest
+	 * selection is decoded when several are queued.
+	 */
+	private void preloadSelected()
+	{
+		File file=getSelectedFile();
+		if ((file == null) || (background == null))
+		{
+			return;
 		}
+		preloadTarget=file;
+		background.submit("Preload", () -> {
+			File target=preloadTarget;
+			Preloaded current=preloaded;
+			if ((current != null) && current.matches(target))
+			{
+				return;
+			}
+			try
+			{
+				preloaded=new Preloaded(target, decode(preloadParser, target));
+				Log.info("Preloaded {}", target.getName());
+			} catch (IOException e) {
+				Log.warn("Preload of {}: {}", target.getName(), e);
+			}
+		});
+	}
 
+	/*
+	 * A rescan that has finished is put into use; without one (enabled straight after boot) the scan is done here.
+	 */
+	private void takeListing(boolean required)
+	{
+		AutoListing listing=pendingListing;
+		if (listing != null)
+		{
+			pendingListing=null;
+			useListing(listing);
+		} else if (required && (autoFileList == null))
+		{
+			useListing(getAutoFileList());
+		}
 	}
 
 	public void disabledPeriodic()
 	{
+		takeListing(false);
+
 		if ((recordButton != null) && recordButton.getState())
 		{
 			toggleRecording();
@@ -408,19 +730,24 @@ public class ActionRecorder implements Runnable
 		
 		if ((upButton != null) && upButton.getState())
 		{
+			// Right after boot the deferred rescan may not have run yet; a press needs the list now
+			takeListing(true);
 			if (autoFileIndex < (autoFileList.size()-1))
 			{
 				autoFileIndex++;
 				displayName();
+				preloadSelected();
 			}
 		}
 		
 		if ((downButton != null) && downButton.getState())
 		{
+			takeListing(true);
 			if (autoFileIndex > 0)
 			{
 				autoFileIndex--;
 				displayName();
+				preloadSelected();
 			}
 		}
 
@@ -431,14 +758,24 @@ public class ActionRecorder implements Runnable
 	{
 		if (isRecording())
 		{
-			if (!recordingReady)
+			if ((journal != null) && journal.isOpen())
+			{
+				journal.append(drIn);
+			} else
 			{
-				driverInputs = new ArrayList<DriverInput>();
-				recordingReady=true;
+				if (!recordingReady)
+				{
+					driverInputs = new ArrayList<DriverInput>();
+					recordingReady=true;
+				}
+				driverInputs.add(drIn);
 			}
-			driverInputs.add(drIn);
 		}
-		playbackMethod.invoke(playbackObject,  drIn);
+		if (latencyTracer != null)
+		{
+			latencyTracer.mark(LatencyTracer.DISPATCH);
+		}
+		behave(drIn);
 	}
 	
 	public void longPlayback(RobotBase robot, int nCycles)
@@ -455,17 +792,12 @@ public class ActionRecorder implements Runnable
 	{
 		if ((driverInputs==null) || (driverInputs.size() == 0))
 		{
-			System.out.println("No driver inputs to playback");
+			Log.warn("No driver inputs to playback");
 			Timer.delay(0.050);
 			return;
 		}
 		
-		if (playbackIterator == null)
-		{
-			System.out.println("Creating Iterator for " + driverInputs.size() + " inputs");
-			playbackIterator=driverInputs.iterator();
-			playbackStart=Utility.getFPGATime();
-		}
+		makeIterator("Loop");
 
 		if (playbackIterator.hasNext())
 		{
@@ -473,16 +805,19 @@ public class ActionRecorder implements Runnable
 			
 //			System.out.println("input time offset is " + input.getTimeOffset());
 
-			double delayForPlayback=((double)(playbackStart+input.getTimeOffset() - Utility.getFPGATime()))/1000000.0;
+			double delayForPlayback=((double)(deadline(input) - Utility.getFPGATime()))/1000000.0;
 //			System.out.println("Delay before input is " + delayForPlayback);
 
 			if (delayForPlayback > 0)
 			{
 				Timer.delay(delayForPlayback);
 			}
+			input=due(input);
 			
 			long expectedTime=playbackStart+input.getTimeOffset();
 			long timeError=Utility.getFPGATime() - expectedTime;
+			lastPlayedOffset=input.getTimeOffset();
+			compensation.add(input.getTimeOffset(), timeError);
 			
 			Sx += expectedTime;
 			Sx2 += (expectedTime*expectedTime);
@@ -497,16 +832,9 @@ public class ActionRecorder implements Runnable
 				String playDetails = String.format("%.6f", (double)expectedTime/1000000.0) + "," + timeError + "," + input.toString();
 				details.add(playDetails);
 				
-				playbackMethod.invoke(playbackObject,  input);
-			} catch (IllegalAccessException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (IllegalArgumentException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (InvocationTargetException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				behave(input);
+			} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+				Log.error("Loop playback failed", e);
 			}
 		} else
 		{
@@ -514,60 +842,97 @@ public class ActionRecorder implements Runnable
 		}
 	}
 	
+	/*
+	 * Check, without waiting, whether the last recording has been written.  Returns false while it is still being
+	 * written.
+	 */
+	private boolean finishRecording()
+	{
+		if ((pendingRecording == null) || !pendingRecording.isDone())
+		{
+			return (pendingRecording == null);
+		}
+		try
+		{
+			pendingRecording.get();
+		} catch (InterruptedException | ExecutionException e) {
+			Log.warn("Recording not written", e);
+		}
+		pendingRecording=null;
+		return true;
+	}
+
+	/*
+	 * Read a routine whose recording was still being written at autonomousInit, once it is in place.  Returns false
+	 * if it still is not.
+	 */
+	private boolean readDeferred()
+	{
+		if (deferredRead == null)
+		{
+			return true;
+		}
+		if (!finishRecording())
+		{
+			return false;
+		}
+		readAutoFile(deferredRead);
+		Log.info("Read {} after its recording was written", deferredRead.getName());
+		deferredRead=null;
+		return true;
+	}
+
 	private void readAutoFile(File autoFile)
 	{
-		BufferedReader inFile = null;
 		try
 		{
-			inFile = new BufferedReader(new FileReader(autoFile));
-			driverInputs=new ArrayList<DriverInput>();
-			
-			String line;
-			while ((line=inFile.readLine()) != null)
-			{
-//				System.out.println("Line was <" + line + ">");
-				String[] tokens = line.split(";");
-				int timeOffset = Integer.parseInt(tokens[0]);
-				Object[] drIn = new Object[tokens.length-1];
-				for (int i=1; i < tokens.length; i++)
-				{
-					if (tokens[i].equalsIgnoreCase("true") || tokens[i].equalsIgnoreCase("false")) {
-						drIn[i-1] = new Boolean(tokens[i]);
-					} else if (tokens[i].equalsIgnoreCase("null")) {
-						drIn[i-1]=null;
-					} else {
-						drIn[i-1]=new Double(tokens[i]);
-					}
-				}
-				DriverInput input=new DriverInput(drIn);
-				input.setTimeOffset(timeOffset);
-				driverInputs.add(input);
-			}
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (NumberFormatException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			driverInputs=decode(parser, autoFile);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} finally
+			Log.error("{}: {}", autoFile.getName(), e);
+			driverInputs=null;
+		}
+	}
+
+	/*
+	 * Parse a routine, from the pack or its own file.  Each parser keeps its buffers, so a parser must only be used
+	 * by one thread.
+	 */
+	private List<DriverInput> decode(RoutineParser routineParser, File autoFile) throws IOException
+	{
+		Object event = FlightEvents.begin(FlightEvents.FILE_IO);
+		InputStore store;
+		long bytes;
+		if (isPacked(autoFile))
 		{
-			if (inFile != null)
-			{
-				try {
-					inFile.close();
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-			}
+			byte[] raw = autoPack.read(autoFile.getName());
+			store = routineParser.parse(raw, raw.length);
+			bytes = raw.length;
+		} else
+		{
+			store = routineParser.parse(autoFile);
+			bytes = autoFile.length();
 		}
+		List<DriverInput> inputs=store.toDriverInputs();
+		FlightEvents.io(event, "readAutoFile", autoFile.getName(), bytes);
+		return inputs;
 	}
-	
+
+	/*
+	 * A routine named in a playlist: its own file if there is one, otherwise the routine of that name in the pack.
+	 */
+	private File routineFile(String name)
+	{
+		File file=new File(autoDirName, name);
+		if (!file.isFile() && (autoPack != null) && autoPack.contains(name))
+		{
+			return new File(autoPack.getFile(), name);
+		}
+		return file;
+	}
+
 	public void teleopInit()
 	{
+		teleopInitTimer.start();
 		if (isRecording())
 		{
 			String recordFileName = SmartDashboard.getString("DB/String 0", "new_auto.csv");
@@ -581,27 +946,91 @@ public class ActionRecorder implements Runnable
 //					break;
 //				}
 //			}
-			System.out.println("Recording to " + recordFile.getAbsolutePath());
+			Log.info("Recording to {}", recordFile.getAbsolutePath());
 			fileToRecord=recordFile;
+
+			// The previous recording must be out of the journal, and the journal cleared, before it is reused
+			finishRecording();
+			if ((pendingRecovery != null) && !pendingRecovery.isDone())
+			{
+				Log.warn("Journal recovery still running, recording in memory");
+			} else if ((pendingRecording != null) && !pendingRecording.isDone())
+			{
+				Log.warn("Previous recording still being written, recording in memory");
+			} else if ((journal != null) && !journal.begin(recordFile.getName()))
+			{
+				Log.warn("Recording journal not cleared yet, recording in memory");
+			}
 		}
+		teleopInitTimer.lap("Journal");
+		teleopInitTimer.end();
 	}
 
 	public void autonomousInit()
 	{
 //		System.out.println("Entering autonomous init with " + autoFileList.get(autoFileIndex).getAbsoluteFile());
+		autonomousInitTimer.start();
 		details = new ArrayList<String>();
-		File autoFile = autoFileList.get(autoFileIndex);
-		if (autoFile.canRead())
+		boolean recordingWritten = finishRecording();
+		deferredRead = null;
+		autonomousInitTimer.lap("Check Recording");
+		takeListing(true);
+		autonomousInitTimer.lap("Listing");
+		// A playlist on the dashboard is played instead of the selected routine
+		List<String> routines = Playlist.parse(SmartDashboard.getString("Auto/Playlist", ""));
+		String selection;
+		if (!routines.isEmpty())
 		{
-//			System.out.println("Reading <" + autoFile.getName() + ">");
-			readAutoFile(autoFile);
+			playlist = new Playlist(routines, name -> decode(prefetchParser, routineFile(name)));
+			selection = "playlist:" + playlist;
+			details.add("#version=" + codeVersion + ";routine=" + playlist);
+			driverInputs = playlist.start();
+		} else
+		{
+			playlist = null;
+			File autoFile = autoFileList.get(autoFileIndex);
+			selection = autoFile.getPath();
+			details.add("#version=" + codeVersion + ";routine=" + autoFile.getName());
+			Preloaded ready=preloaded;
+			if (!recordingWritten && autoFile.equals(fileToRecord))
+			{
+				// Not renamed into place yet: read it when playback starts rather than wait for it here
+				Log.warn("{} is still being written, reading it when playback starts", autoFile.getName());
+				driverInputs=null;
+				deferredRead=autoFile;
+			} else if ((ready != null) && ready.matches(autoFile))
+			{
+				driverInputs=ready.inputs;
+			} else if (isPacked(autoFile) || autoFile.canRead())
+			{
+//				System.out.println("Reading <" + autoFile.getName() + ">");
+				readAutoFile(autoFile);
+			}
 		}
-		if (driverInputs==null)
+		autonomousInitTimer.lap("Parse");
+		if ((driverInputs==null) && (deferredRead==null))
 		{
-			System.out.println("No Auto File");
+			Log.warn("No Auto File");
 		} else
 		{
-			System.out.println("Auto File has " + driverInputs.size() + " elements");
+			if (driverInputs != null)
+			{
+				Log.info("Auto File has {} elements", driverInputs.size());
+			}
+
+			// Either pick up where an interrupted run of the same routine stopped, or start at the dashboard offset
+			if (SmartDashboard.getBoolean("Auto/Resume", false) && selection.equals(lastPlayed) && resume()) {
+				Log.info("Resuming at {}", realTime(startOffset));
+			} else if (DriverStation.getInstance().isFMSAttached()) {
+				// A match always plays the whole routine, whatever was left on the dashboard for testing
+				lastPlayedOffset=-1;
+				seek(0);
+			} else {
+				lastPlayedOffset=-1;
+				seek((long)(SmartDashboard.getNumber("Auto/Start Offset", 0.0) * ticsPerSecond));
+			}
+			lastPlayed=selection;
+
 			Sx=0;
 			Sx2=0;
 			Sxy=0;
@@ -610,17 +1039,27 @@ public class ActionRecorder implements Runnable
 			n=0;
 
 		}
+		autonomousInitTimer.lap("Seek");
+		autonomousInitTimer.end();
 	}
 	
-	public void notifierAuto() {
+	/**
+	 * Start playback on a Notifier.  Returns false, and should be called again in the next cycle, if the routine
+	 * is a recording that is still being written.
+	 */
+	public boolean notifierAuto() {
+		if (!readDeferred())
+		{
+			return false;
+		}
 		if ((driverInputs==null) || (driverInputs.size() == 0))
 		{
-			System.out.println("No driver inputs to playback");
+			Log.warn("No driver inputs to playback");
 			Timer.delay(0.050);
-			return;
+			return true;
 		}
 		
-		makeIterator();
+		makeIterator("Notifier");
 		
 		if (playbackIterator.hasNext() &&
 				((RobotBase)playbackObject).isAutonomous() && ((RobotBase)playbackObject).isEnabled()) {
@@ -630,23 +1069,25 @@ public class ActionRecorder implements Runnable
 			nextTask = new Notifier(new AutoOperation(input));
 			nextTask.startSingle(timeToNext(input));
 		}
+		return true;
 	}
 
 	@Override
 	public void run() {
+		ThreadConfig.attach("Playback Thread");
+		// The playback thread can afford to wait for a recording still being written
+		while (!readDeferred())
+		{
+			Timer.delay(0.010);
+		}
 		if ((driverInputs==null) || (driverInputs.size() == 0))
 		{
-			System.out.println("No driver inputs to playback");
+			Log.warn("No driver inputs to playback");
 			Timer.delay(0.050);
 			return;
 		}
 		
-		if (playbackIterator == null)
-		{
-			System.out.println("Creating Iterator for " + driverInputs.size() + " inputs");
-			playbackIterator=driverInputs.iterator();
-			playbackStart=Utility.getFPGATime();
-		}
+		makeIterator("Thread");
 
 		while (playbackIterator.hasNext() &&
 				((RobotBase)playbackObject).isAutonomous() && ((RobotBase)playbackObject).isEnabled() &&
@@ -655,16 +1096,19 @@ public class ActionRecorder implements Runnable
 			
 //			System.out.println("input time offset is " + input.getTimeOffset());
 
-			double delayForPlayback=((double)(playbackStart+input.getTimeOffset() - Utility.getFPGATime()))/1000000.0;
+			double delayForPlayback=((double)(deadline(input) - Utility.getFPGATime()))/1000000.0;
 //			System.out.println("Delay before input is " + delayForPlayback);
 
 			if (delayForPlayback > 0)
 			{
 				Timer.delay(delayForPlayback);
 			}
+			input=due(input);
 			
 			long expectedTime=playbackStart+input.getTimeOffset();
 			long timeError=Utility.getFPGATime() - expectedTime;
+			lastPlayedOffset=input.getTimeOffset();
+			compensation.add(input.getTimeOffset(), timeError);
 			
 			Sx += expectedTime;
 			Sx2 += (expectedTime*expectedTime);
@@ -679,64 +1123,238 @@ public class ActionRecorder implements Runnable
 				String playDetails = String.format("%.6f", (double)expectedTime/1000000.0) + "," + timeError + "," + input.toString();
 				details.add(playDetails);
 				
-				playbackMethod.invoke(playbackObject,  input);
-			} catch (IllegalAccessException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (IllegalArgumentException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (InvocationTargetException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				behave(input);
+			} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+				Log.error("Thread playback failed", e);
 			}
 		}
-		System.out.println("Autonomous thread ending");
+		Log.info("Autonomous thread ending");
 	}
 	
 	protected void invokeMethod(DriverInput input) {
 		long expectedTime=timeOfEvent(input);
-		long timeError=Utility.getFPGATime() - expectedTime;
-		
-		Sx += expectedTime;
-		Sx2 += (expectedTime*expectedTime);
-		Sxy += (expectedTime*timeError);
-		Sy2 += (timeError*timeError);
-		Sy += timeError;
-		
-		n++;
-		
+		long now=Utility.getFPGATime();
+		long timeError=now - expectedTime;
+		lastPlayedOffset=input.getTimeOffset();
+		if (!warmingUp) {
+			FlightEvents.playback(lastPlayedOffset, expectedTime, now);
+			compensation.add(input.getTimeOffset(), timeError);
+			
+			Sx += expectedTime;
+			Sx2 += (expectedTime*expectedTime);
+			Sxy += (expectedTime*timeError);
+			Sy2 += (timeError*timeError);
+			Sy += timeError;
+			
+			n++;
+			
+			if (telemetry != null) {
+				telemetry.putSample(timeErrorChannel, timeError);
+			}
+		}
 
 		try {
 			String playDetails = String.format("%.6f", ((double)expectedTime)/ticsPerSecond) + "," +
 					String.format("%.6f", ((double)timeError)/ticsPerSecond) + "," + input.toString();
 			details.add(playDetails);
 			
-			playbackMethod.invoke(playbackObject,  input);
-		} catch (IllegalAccessException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (IllegalArgumentException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (InvocationTargetException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			behave(input);
+		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+			Log.error("Playback failed", e);
 		}
 
 	}
 	
+	/**
+	 * Run the parser and the playback path over a set of synthetic inputs, so that they are compiled before
+	 * autonomous starts.  This is meant to be called every disabled cycle, with the behavior method pointed at
+	 * actuator stand-ins.  Each call plays inputs until it has used the given budget, in seconds, and the next
+	 * call carries on where it stopped; returns true when a call finished a pass over the inputs.  Warm-up cycles
+	 * leave out the telemetry samples, flight events, timing statistics and latency compensation, which are only
+	 * meant for real playback.  The latency of the very first cycle and the mean cycle of the latest pass are put
+	 * on the dashboard, to show the difference between interpreted and compiled code.
+	 */
+	public boolean warmUp(List<DriverInput> inputs, double budget)
+	{
+		List<String> savedDetails = details;
+		long savedStart = playbackStart;
+		long savedPlayed = lastPlayedOffset;
+		long deadline = System.nanoTime() + (long)(budget * 1.0e9);
+		boolean passDone = false;
+
+		details = new ArrayList<String>();
+		warmingUp=true;
+		try
+		{
+			if (warmupParsed == null)
+			{
+				StringBuilder text = new StringBuilder();
+				for (DriverInput input : inputs)
+				{
+					text.append(input.toString()).append('\n');
+				}
+				byte[] bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+				warmupParsed = parser.parse(bytes, bytes.length).toDriverInputs();
+				warmupNext=0;
+				warmupPassTime=0;
+			}
+
+			playbackStart=Utility.getFPGATime();
+			while ((warmupNext < warmupParsed.size()) && (System.nanoTime() < deadline))
+			{
+				long t0=System.nanoTime();
+				invokeMethod(warmupParsed.get(warmupNext++));
+				long cycle=System.nanoTime()-t0;
+				if (warmupCycles++ == 0)
+				{
+					warmupFirst=cycle;
+				}
+				warmupPassTime+=cycle;
+			}
+			if (warmupNext >= warmupParsed.size())
+			{
+				warmupSteady=warmupPassTime/Math.max(1, warmupParsed.size());
+				warmupParsed=null;
+				passDone=true;
+			}
+		} catch (IOException e) {
+			Log.error("Warm-up parse failed", e);
+			warmupParsed=null;
+		} finally
+		{
+			warmingUp=false;
+			details=savedDetails;
+			playbackStart=savedStart;
+			lastPlayedOffset=savedPlayed;
+		}
+
+		SmartDashboard.putNumber("Auto/Warmup/Cycles", warmupCycles);
+		SmartDashboard.putNumber("Auto/Warmup/First Cycle", ((double)warmupFirst)/1000.0);
+		SmartDashboard.putNumber("Auto/Warmup/Steady Cycle", ((double)warmupSteady)/1000.0);
+		return passDone;
+	}
+
+	public long getWarmupCycles() {
+		return warmupCycles;
+	}
+
+	public void reportWarmUp() {
+		Log.info("Warm-up: {} cycles, first cycle {} us, steady cycle {} us",
+				warmupCycles, warmupFirst/1000, warmupSteady/1000);
+	}
+
 	public double realTime(long t) {
 		return ((double)t) / ticsPerSecond;
 	}
 	
-	private void makeIterator() {
+	/*
+	 * The iterator starts at the first input at or after startOffset, and playbackStart is moved back by the
+	 * same amount so that every following input keeps its place in the original schedule.  A playlist's offsets
+	 * are on the playlist's continuous schedule.  Each new iterator starts a run of the latency compensation for
+	 * the playback mode.  Overdue inputs are handled by the catch-up policy.
+	 */
+	private void makeIterator(String mode) {
 		if (playbackIterator == null)
 		{
-			System.out.println("Creating Iterator for " + driverInputs.size() + " inputs");
-			playbackIterator=driverInputs.iterator();
-			playbackStart=Utility.getFPGATime();
+			Iterator<DriverInput> inputs;
+			if (playlist != null)
+			{
+				Log.info("Creating Iterator for playlist {} from offset {}", playlist, startOffset);
+				inputs=playlist.iterator(startOffset);
+			} else
+			{
+				int idx=indexOf(startOffset);
+				Log.info("Creating Iterator for {} inputs from element {}", driverInputs.size()-idx, idx);
+				inputs=driverInputs.listIterator(idx);
+			}
+			CatchUp.Policy policy=CatchUp.fromName(SmartDashboard.getString("Auto/Catch Up", catchUpPolicy.name()),
+					catchUpPolicy);
+			catchUp=new CatchUp(inputs, policy, this::deadline);
+			playbackIterator=catchUp;
+			compensation.begin(mode);
+			playbackStart=Utility.getFPGATime()-startOffset;
+		}
+	}
+	
+	/*
+	 * The input to play once the one taken from the playback iterator is due.  The catch-up policy is applied
+	 * here, after the wait, so an input made outdated by a stall during the wait is caught up too.
+	 */
+	private DriverInput due(DriverInput input) {
+		return (catchUp != null) ? catchUp.due(input) : input;
+	}
+	
+	/**
+	 * Index of the first input whose time offset is at or after the given offset (binary search).
+	 */
+	public int indexOf(long offset) {
+		int lo=0;
+		int hi=driverInputs.size();
+		while (lo < hi) {
+			int mid=(lo+hi) >>> 1;
+			if (driverInputs.get(mid).getTimeOffset() < offset) {
+				lo=mid+1;
+			} else {
+				hi=mid;
+			}
+		}
+		return lo;
+	}
+	
+	/**
+	 * Start the next playback at a time offset (microseconds) into the routine.
+	 */
+	public void seek(long offset) {
+		startOffset=Math.max(0, offset);
+		playbackIterator=null;
+	}
+	
+	/**
+	 * Start the next playback just after the last input that was played.
+	 */
+	public boolean resume() {
+		if (lastPlayedOffset < 0) {
+			return false;
 		}
+		seek(lastPlayedOffset+1);
+		return true;
+	}
+	
+	/**
+	 * Note the last input played by a player other than this recorder (a compiled timeline), so that the next
+	 * run can resume after it.
+	 */
+	public void setLastPlayedOffset(long offset) {
+		lastPlayedOffset=offset;
+	}
+	
+	public long getLastPlayedOffset() {
+		return lastPlayedOffset;
+	}
+	
+	public long getPlaybackStart() {
+		return playbackStart;
+	}
+	
+	public long getStartOffset() {
+		return startOffset;
+	}
+	
+	/**
+	 * The routine selected for autonomous, or null if there is none.
+	 */
+	public File getSelectedFile() {
+		if ((autoFileList == null) || (autoFileIndex < 0) || (autoFileIndex >= autoFileList.size())) {
+			return null;
+		}
+		return autoFileList.get(autoFileIndex);
+	}
+	
+	/**
+	 * The playlist being played instead of the selected routine, or null.
+	 */
+	public Playlist getPlaylist() {
+		return playlist;
 	}
 	
 	public long timeOfEvent(DriverInput input) {
@@ -745,8 +1363,19 @@ public class ActionRecorder implements Runnable
  
 	}
 	
+	/**
+	 * The time to play an input: its recorded time, moved earlier by the learned latency compensation.
+	 */
+	public long deadline(DriverInput input) {
+		return timeOfEvent(input) - compensation.correction(input.getTimeOffset());
+	}
+	
+	public LatencyCompensation getCompensation() {
+		return compensation;
+	}
+	
 	double timeToNext(DriverInput nextInput) {
-		double nextTime = realTime(timeOfEvent(nextInput));
+		double nextTime = realTime(deadline(nextInput));
 		double delay = nextTime - realTime(Utility.getFPGATime());
 		return delay;
 	}
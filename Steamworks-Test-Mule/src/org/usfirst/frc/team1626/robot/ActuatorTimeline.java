@@ -0,0 +1,359 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.wpi.first.wpilibj.DoubleSolenoid;
+
+/**	The {@link ActuatorTimeline} class is a recorded routine compiled down to the actuator commands it produces.  The
+ *  routine is run once through {@link RobotBehavior} against actuators that only remember what they were told, so
+ *  the compressor hysteresis, the gear toggle and the button branches are all decided ahead of time.  What is left is
+ *  one row per input: its time offset and the value of every actuator, in the channel order of
+ *  {@link RobotBehavior#newTrace} (see the TRACE_ constants).  Playing it back ({@link TimelinePlayer}) is a timed
+ *  table lookup.
+ *
+ *  Timelines are compiled off the robot and saved next to the routine, as the routine name plus ".timeline":
+ *
+ *  		java org.usfirst.frc.team1626.robot.ActuatorTimeline [-o dir] routine...
+ *
+ *  A routine is a recorded file, an auto.pack or a directory containing either.  Layout (big-endian, as written by
+ *  {@link DataOutputStream}):
+ *
+ *  		magic "ATLN", int version, int channels, int rows
+ *  		rows times: long offset, channels doubles
+ */
+
+public class ActuatorTimeline
+{
+	public static final String suffix = ".timeline";
+	private static final int MAGIC = 0x41544c4e;	// "ATLN"
+	private static final int VERSION = 1;
+	private static final int channels = RobotBehavior.newTrace(0).getChannels();
+
+	private final int rows;
+	private final long[] times;
+	private final double[] values;
+
+	private ActuatorTimeline(int rows, long[] times, double[] values)
+	{
+		this.rows = rows;
+		this.times = times;
+		this.values = values;
+	}
+
+	/*
+	 * Stand-in actuators that keep the latest command for each channel.
+	 */
+	private static class RecordingActuators implements Actuators
+	{
+		final double[] current = new double[channels];
+
+		RecordingActuators()
+		{
+			current[RobotBehavior.TRACE_COMPRESSOR] = 1;
+		}
+
+		@Override
+		public boolean compressorEnabled()
+		{
+			return current[RobotBehavior.TRACE_COMPRESSOR] != 0;
+		}
+
+		@Override
+		public void startCompressor()
+		{
+			current[RobotBehavior.TRACE_COMPRESSOR] = 1;
+		}
+
+		@Override
+		public void stopCompressor()
+		{
+			current[RobotBehavior.TRACE_COMPRESSOR] = 0;
+		}
+
+		@Override
+		public void tankDrive(double left, double right)
+		{
+			current[RobotBehavior.TRACE_LEFT] = left;
+			current[RobotBehavior.TRACE_RIGHT] = right;
+		}
+
+		@Override
+		public void setWinch(double speed)
+		{
+			current[RobotBehavior.TRACE_WINCH] = speed;
+		}
+
+		@Override
+		public void shift(boolean highGear)
+		{
+			current[RobotBehavior.TRACE_SHIFTER] =
+					(highGear ? DoubleSolenoid.Value.kReverse : DoubleSolenoid.Value.kForward).ordinal();
+		}
+
+		@Override
+		public void setShooter(double speed)
+		{
+			current[RobotBehavior.TRACE_SHOOTER] = speed;
+		}
+
+		@Override
+		public void setAgitator(double speed)
+		{
+			current[RobotBehavior.TRACE_AGITATOR] = speed;
+		}
+
+		@Override
+		public void setGearHandler(DoubleSolenoid.Value value)
+		{
+			current[RobotBehavior.TRACE_GEAR_HANDLER] = value.ordinal();
+		}
+
+		@Override
+		public void setPickup(double speed)
+		{
+			current[RobotBehavior.TRACE_PICKUP] = speed;
+		}
+	}
+
+	/**
+	 * Run a routine through the behavior once, starting from the state set at the start of autonomous.
+	 */
+	public static ActuatorTimeline compile(List<DriverInput> inputs, RobotParameters params)
+	{
+		RecordingActuators recorder = new RecordingActuators();
+		RobotBehavior behavior = new RobotBehavior(params, recorder, RobotBehavior.newTrace(0));
+		behavior.modeInit();
+
+		int rows = inputs.size();
+		long[] times = new long[rows];
+		double[] values = new double[rows * channels];
+		for (int r=0; r<rows; r++)
+		{
+			DriverInput input = inputs.get(r);
+			behavior.operate(input);
+			times[r] = input.getTimeOffset();
+			System.arraycopy(recorder.current, 0, values, r * channels, channels);
+		}
+		return new ActuatorTimeline(rows, times, values);
+	}
+
+	public int size()
+	{
+		return rows;
+	}
+
+	public long getTime(int row)
+	{
+		return times[row];
+	}
+
+	public double getValue(int row, int channel)
+	{
+		return values[row * channels + channel];
+	}
+
+	/**
+	 * Index of the first row whose time offset is at or after the given offset.
+	 */
+	public int indexOf(long offset)
+	{
+		int idx = Arrays.binarySearch(times, 0, rows, offset);
+		if (idx < 0)
+		{
+			return -idx - 1;
+		}
+		while (idx > 0 && times[idx-1] == offset)
+		{
+			idx--;
+		}
+		return idx;
+	}
+
+	/**
+	 * Command the actuators for a row.  The motors are set every row, which also feeds the motor safety; the
+	 * compressor and the solenoids are only commanded when they change from the previous row (previous is -1 for
+	 * the first row played).
+	 */
+	public void apply(int row, int previous, Actuators actuators)
+	{
+		int base = row * channels;
+		int prev = (previous >= 0) ? previous * channels : -1;
+
+		actuators.tankDrive(values[base + RobotBehavior.TRACE_LEFT], values[base + RobotBehavior.TRACE_RIGHT]);
+		actuators.setWinch(values[base + RobotBehavior.TRACE_WINCH]);
+		actuators.setShooter(values[base + RobotBehavior.TRACE_SHOOTER]);
+		actuators.setAgitator(values[base + RobotBehavior.TRACE_AGITATOR]);
+		actuators.setPickup(values[base + RobotBehavior.TRACE_PICKUP]);
+
+		if (changed(base, prev, RobotBehavior.TRACE_COMPRESSOR))
+		{
+			if (values[base + RobotBehavior.TRACE_COMPRESSOR] != 0)
+			{
+				actuators.startCompressor();
+			} else
+			{
+				actuators.stopCompressor();
+			}
+		}
+		if (changed(base, prev, RobotBehavior.TRACE_SHIFTER))
+		{
+			actuators.shift(values[base + RobotBehavior.TRACE_SHIFTER] == DoubleSolenoid.Value.kReverse.ordinal());
+		}
+		if (changed(base, prev, RobotBehavior.TRACE_GEAR_HANDLER))
+		{
+			actuators.setGearHandler(DoubleSolenoid.Value.values()[(int)values[base + RobotBehavior.TRACE_GEAR_HANDLER]]);
+		}
+	}
+
+	private boolean changed(int base, int prev, int channel)
+	{
+		return (prev < 0) || (values[base + channel] != values[prev + channel]);
+	}
+
+	/**
+	 * Copy a row into an output trace cycle, so that compiled playback is traced like interpreted playback.
+	 */
+	public void trace(int row, OutputTrace trace)
+	{
+		for (int c=0; c<channels; c++)
+		{
+			trace.set(c, values[row * channels + c]);
+		}
+	}
+
+	/**
+	 * The timeline file for a routine.  Routines in a pack have theirs next to the pack.
+	 */
+	public static File fileFor(File routine)
+	{
+		File dir = routine.getParentFile();
+		if ((dir != null) && dir.getName().equals(AutoPack.packFileName))
+		{
+			dir = dir.getParentFile();
+		}
+		return new File(dir, routine.getName() + suffix);
+	}
+
+	public void write(File file) throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(channels);
+			out.writeInt(rows);
+			for (int r=0; r<rows; r++)
+			{
+				out.writeLong(times[r]);
+				for (int c=0; c<channels; c++)
+				{
+					out.writeDouble(values[r * channels + c]);
+				}
+			}
+		}
+	}
+
+	public static ActuatorTimeline read(File file) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			if (in.readInt() != MAGIC)
+			{
+				throw new IOException(file.getName() + ": not a timeline");
+			}
+			int version = in.readInt();
+			if (version != VERSION)
+			{
+				throw new IOException(file.getName() + ": unsupported version " + version);
+			}
+			int fileChannels = in.readInt();
+			if (fileChannels != channels)
+			{
+				throw new IOException(file.getName() + ": " + fileChannels + " channels, expected " + channels);
+			}
+			int rows = in.readInt();
+			long[] times = new long[rows];
+			double[] values = new double[rows * channels];
+			for (int r=0; r<rows; r++)
+			{
+				times[r] = in.readLong();
+				for (int c=0; c<channels; c++)
+				{
+					values[r * channels + c] = in.readDouble();
+				}
+			}
+			return new ActuatorTimeline(rows, times, values);
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		File outDir = null;
+		int first = 0;
+		if (args.length > 1 && args[0].equals("-o"))
+		{
+			outDir = new File(args[1]);
+			first = 2;
+		}
+		if (args.length <= first)
+		{
+			System.err.println("usage: ActuatorTimeline [-o dir] <routine> ...");
+			System.exit(1);
+		}
+
+		RobotBehavior.nameInputs();
+		RoutineParser parser = new RoutineParser();
+		for (int i=first; i<args.length; i++)
+		{
+			compileAll(new File(args[i]), outDir, parser);
+		}
+	}
+
+	private static void compileAll(File file, File outDir, RoutineParser parser) throws IOException
+	{
+		if (file.isDirectory())
+		{
+			File[] files = file.listFiles(f -> f.isFile() && !f.getName().endsWith(suffix));
+			if (files != null)
+			{
+				Arrays.sort(files);
+				for (File f : files)
+				{
+					compileAll(f, outDir, parser);
+				}
+			}
+		} else if (file.getName().equals(AutoPack.packFileName))
+		{
+			AutoPack pack = AutoPack.open(file);
+			for (AutoPack.Entry entry : pack.entries())
+			{
+				byte[] data = pack.read(entry.getName());
+				compileOne(new File(file, entry.getName()), parser.parse(data, data.length), outDir);
+			}
+		} else
+		{
+			compileOne(file, parser.parse(file), outDir);
+		}
+	}
+
+	private static void compileOne(File routine, InputStore store, File outDir) throws IOException
+	{
+		ActuatorTimeline timeline = compile(store.toDriverInputs(), new RobotParameters());
+		File out = fileFor(routine);
+		if (outDir != null)
+		{
+			out = new File(outDir, out.getName());
+		}
+		timeline.write(out);
+		System.out.println(routine.getName() + ": " + timeline.size() + " rows -> " + out.getPath());
+	}
+}
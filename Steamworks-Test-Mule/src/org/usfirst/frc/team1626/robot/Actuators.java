@@ -0,0 +1,34 @@
+package org.usfirst.frc.team1626.robot;
+
+import edu.wpi.first.wpilibj.DoubleSolenoid;
+
+/**	The {@link Actuators} interface is everything {@link RobotBehavior} can command.  The robot normally uses
+ *  the real devices, but the behavior can be pointed at a stand-in (such as {@link NullActuators}) to run it without
+ *  moving anything.
+ */
+
+public interface Actuators
+{
+	boolean compressorEnabled();
+
+	void startCompressor();
+
+	void stopCompressor();
+
+	void tankDrive(double left, double right);
+
+	void setWinch(double speed);
+
+	/**
+	 * Shift the drive train; high gear also enables the drive current limit.
+	 */
+	void shift(boolean highGear);
+
+	void setShooter(double speed);
+
+	void setAgitator(double speed);
+
+	void setGearHandler(DoubleSolenoid.Value value);
+
+	void setPickup(double speed);
+}
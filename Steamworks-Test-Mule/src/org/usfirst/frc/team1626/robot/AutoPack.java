@@ -0,0 +1,330 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**	The {@link AutoPack} class bundles a library of recorded autonomous routines into a single file, so that the
+ *  whole library can be deployed to the roboRio with one copy.  The file starts with an index giving the name,
+ *  offset, compressed and raw length, duration and CRC32 checksum of every routine.  The routine payloads follow
+ *  the index, each one compressed with a {@link Deflater}.
+ *
+ *  Opening a pack only reads the index, so listing and switching routines while disabled never touches the
+ *  payloads.  A routine is inflated and checked against its CRC only when {@link #read} is called for it.
+ *
+ *  Layout (all values big-endian, as written by {@link DataOutputStream}):
+ *
+ *  		magic "APAK", int version, int count
+ *  		count times: UTF name, long offset, int packedLength, int rawLength, long duration, int crc32
+ *  		payloads
+ *
+ *  The pack can be built on a laptop with:
+ *
+ *  		java org.usfirst.frc.team1626.robot.AutoPack auto.pack routine1.csv routine2.csv ...
+ */
+
+public class AutoPack
+{
+	public static final String packFileName = "auto.pack";
+	private static final int MAGIC = 0x4150414b;	// "APAK"
+	private static final int VERSION = 1;
+
+	private File packFile;
+	private Map<String, Entry> index;
+
+	public static class Entry
+	{
+		private String name;
+		private long offset;
+		private int packedLength;
+		private int rawLength;
+		private long duration;
+		private int crc;
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public int getLength()
+		{
+			return rawLength;
+		}
+
+		public int getPackedLength()
+		{
+			return packedLength;
+		}
+
+		public long getDuration()
+		{
+			return duration;
+		}
+
+		public int getChecksum()
+		{
+			return crc;
+		}
+	}
+
+	private AutoPack(File file, Map<String, Entry> idx)
+	{
+		packFile = file;
+		index = idx;
+	}
+
+	/**
+	 * Read the index of a pack file.  None of the payloads are read.
+	 */
+	public static AutoPack open(File file) throws IOException
+	{
+		Map<String, Entry> idx = new LinkedHashMap<String, Entry>();
+
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file)))
+		{
+			if (in.readInt() != MAGIC)
+			{
+				throw new IOException(file.getName() + ": not an auto pack");
+			}
+			int version = in.readInt();
+			if (version != VERSION)
+			{
+				throw new IOException(file.getName() + ": unsupported pack version " + version);
+			}
+			int count = in.readInt();
+			for (int i=0; i<count; i++)
+			{
+				Entry entry = new Entry();
+				entry.name = in.readUTF();
+				entry.offset = in.readLong();
+				entry.packedLength = in.readInt();
+				entry.rawLength = in.readInt();
+				entry.duration = in.readLong();
+				entry.crc = in.readInt();
+				if (idx.put(entry.name, entry) != null)
+				{
+					throw new IOException(file.getName() + ": more than one routine named " + entry.name);
+				}
+			}
+		}
+		return new AutoPack(file, idx);
+	}
+
+	public File getFile()
+	{
+		return packFile;
+	}
+
+	public List<Entry> entries()
+	{
+		return Collections.unmodifiableList(new ArrayList<Entry>(index.values()));
+	}
+
+	public boolean contains(String name)
+	{
+		return index.containsKey(name);
+	}
+
+	/**
+	 * Extract one routine, inflate it and verify its checksum.
+	 */
+	public byte[] read(String name) throws IOException
+	{
+		Entry entry = index.get(name);
+		if (entry == null)
+		{
+			throw new IOException(packFile.getName() + ": no routine named " + name);
+		}
+
+		byte[] packed = new byte[entry.packedLength];
+		try (RandomAccessFile raf = new RandomAccessFile(packFile, "r"))
+		{
+			raf.seek(entry.offset);
+			raf.readFully(packed);
+		}
+
+		byte[] raw = new byte[entry.rawLength];
+		Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput(packed);
+			int len = inflater.inflate(raw);
+			if (len != entry.rawLength || !inflater.finished())
+			{
+				throw new IOException(name + ": truncated routine in pack");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException(name + ": " + e.getMessage());
+		} finally
+		{
+			inflater.end();
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(raw);
+		if ((int)crc.getValue() != entry.crc)
+		{
+			throw new IOException(name + ": checksum mismatch in pack");
+		}
+		return raw;
+	}
+
+	public BufferedReader openReader(String name) throws IOException
+	{
+		return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(read(name)), StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Build a pack file from a set of routine files.  The routine name in the index is the file name, so two routines
+	 * with the same file name (from different directories) cannot go in one pack.
+	 */
+	public static void write(File out, List<File> routines) throws IOException
+	{
+		Set<String> seen = new HashSet<String>();
+		for (File f : routines)
+		{
+			if (!seen.add(f.getName()))
+			{
+				throw new IOException(out.getName() + ": more than one routine named " + f.getName());
+			}
+		}
+
+		List<Entry> entries = new ArrayList<Entry>();
+		List<byte[]> payloads = new ArrayList<byte[]>();
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+		try
+		{
+			for (File f : routines)
+			{
+				byte[] raw = Files.readAllBytes(f.toPath());
+
+				CRC32 crc = new CRC32();
+				crc.update(raw);
+
+				deflater.reset();
+				deflater.setInput(raw);
+				deflater.finish();
+				ByteArrayOutputStream packed = new ByteArrayOutputStream(raw.length / 2 + 64);
+				byte[] buf = new byte[4096];
+				while (!deflater.finished())
+				{
+					int len = deflater.deflate(buf);
+					packed.write(buf, 0, len);
+				}
+
+				Entry entry = new Entry();
+				entry.name = f.getName();
+				entry.rawLength = raw.length;
+				entry.packedLength = packed.size();
+				entry.duration = lastTimeOffset(raw);
+				entry.crc = (int)crc.getValue();
+				entries.add(entry);
+				payloads.add(packed.toByteArray());
+			}
+		} finally
+		{
+			deflater.end();
+		}
+
+		// The names take as many bytes as writeUTF writes for them, which is modified UTF-8
+		DataOutputStream names = new DataOutputStream(new ByteArrayOutputStream());
+		for (Entry entry : entries)
+		{
+			names.writeUTF(entry.name);
+		}
+		long offset = 12 + names.size() + entries.size() * (8 + 4 + 4 + 8 + 4);
+		for (Entry entry : entries)
+		{
+			entry.offset = offset;
+			offset += entry.packedLength;
+		}
+
+		try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(out)))
+		{
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeInt(entries.size());
+			for (Entry entry : entries)
+			{
+				dos.writeUTF(entry.name);
+				dos.writeLong(entry.offset);
+				dos.writeInt(entry.packedLength);
+				dos.writeInt(entry.rawLength);
+				dos.writeLong(entry.duration);
+				dos.writeInt(entry.crc);
+			}
+			for (byte[] payload : payloads)
+			{
+				dos.write(payload);
+			}
+		}
+	}
+
+	/*
+	 * The duration of a routine is the time offset of its last line, which is the first ';' delimited token.
+	 */
+	private static long lastTimeOffset(byte[] raw)
+	{
+		int end = raw.length;
+		while (end > 0 && (raw[end-1] == '\n' || raw[end-1] == '\r'))
+		{
+			end--;
+		}
+		int start = end;
+		while (start > 0 && raw[start-1] != '\n')
+		{
+			start--;
+		}
+		long value = 0;
+		for (int i=start; i<end && raw[i] >= '0' && raw[i] <= '9'; i++)
+		{
+			value = value*10 + (raw[i] - '0');
+		}
+		return value;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.err.println("usage: AutoPack <pack file> <routine> ...");
+			System.exit(1);
+		}
+
+		List<File> routines = new ArrayList<File>();
+		for (String name : Arrays.asList(args).subList(1, args.length))
+		{
+			routines.add(new File(name));
+		}
+		write(new File(args[0]), routines);
+
+		for (Entry entry : open(new File(args[0])).entries())
+		{
+			System.out.println(entry.getName() + ": " + entry.getLength() + " -> " + entry.getPackedLength() +
+					" bytes, " + (entry.getDuration() / 1000000.0) + " s");
+		}
+	}
+}
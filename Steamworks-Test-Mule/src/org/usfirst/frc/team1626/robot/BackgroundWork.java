@@ -0,0 +1,197 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**	The {@link BackgroundWork} class runs deferred work (writing traces, rescanning the auto directory, preloading
+ *  routines, suggesting a garbage collection) on one low priority thread, and only while the robot is disabled.
+ *  Each disabled cycle calls {@link #tick}, which lets the thread run jobs until it has used its CPU time budget
+ *  for that tick; then it sleeps until the next tick.  A mode init calls {@link #suspend}, after which no further
+ *  step is started until the robot is disabled again, so deferred work never competes with an enabled loop.
+ *
+ *  A job is split into steps by the job itself: {@link Job#step} does a small piece of work and returns true while
+ *  there is more to do.  Jobs run in the order submitted, and a suspended job resumes where it stopped.  A step
+ *  cannot be interrupted, so steps should take well under a budget; a step still running when the robot was
+ *  enabled is logged.  A job that throws is logged and dropped.
+ *
+ *  The number of queued jobs, the CPU time used in the last tick and the number of suspensions that stopped a job
+ *  part way are on the dashboard under "Background/".
+ */
+
+public class BackgroundWork
+{
+	public interface Job
+	{
+		/**
+		 * Do the next piece of work; return true if there is more to do.
+		 */
+		boolean step() throws Exception;
+	}
+
+	private static class Entry
+	{
+		final String name;
+		final Job job;
+
+		Entry(String name, Job job)
+		{
+			this.name = name;
+			this.job = job;
+		}
+	}
+
+	private final long budget;
+	private final Deque<Entry> queue = new ArrayDeque<Entry>();
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+	private Thread worker;
+	private volatile boolean allowed;
+	private volatile long ticks;
+	private volatile long suspendedAt;
+	private int preempted;
+
+	/**
+	 * @param budget CPU time the jobs may use per tick, in seconds
+	 */
+	public BackgroundWork(double budget)
+	{
+		this.budget = (long)(budget * 1.0e9);
+	}
+
+	public void start()
+	{
+		worker = new Thread(this::run, "Background Work");
+		worker.setDaemon(true);
+		worker.setPriority(Thread.MIN_PRIORITY);
+		worker.start();
+	}
+
+	public void submit(String name, Job job)
+	{
+		synchronized (queue)
+		{
+			queue.addLast(new Entry(name, job));
+		}
+	}
+
+	/**
+	 * A job done in one step.
+	 */
+	public void submit(String name, Runnable task)
+	{
+		submit(name, () -> {
+			task.run();
+			return false;
+		});
+	}
+
+	/**
+	 * Called every disabled cycle: grant the jobs another budget.
+	 */
+	public void tick()
+	{
+		allowed = true;
+		ticks++;
+		if (worker != null)
+		{
+			LockSupport.unpark(worker);
+		}
+	}
+
+	/**
+	 * Called when the robot is enabled: start no more steps until the next tick.
+	 */
+	public void suspend()
+	{
+		suspendedAt = System.nanoTime();
+		allowed = false;
+	}
+
+	public int pending()
+	{
+		synchronized (queue)
+		{
+			return queue.size();
+		}
+	}
+
+	private void run()
+	{
+		ThreadConfig.attach("Background");
+		long lastTick = 0;
+		while (true)
+		{
+			LockSupport.park(this);
+			long tick = ticks;
+			if (!allowed || (tick == lastTick))
+			{
+				continue;
+			}
+			lastTick = tick;
+			SmartDashboard.putNumber("Background/CPU", runJobs() / 1.0e6);
+			SmartDashboard.putNumber("Background/Pending", pending());
+		}
+	}
+
+	/*
+	 * Run steps until the budget is used, the queue is empty or the robot is enabled.  Returns the time used, in
+	 * nanoseconds.
+	 */
+	private long runJobs()
+	{
+		long start = now();
+		long used = 0;
+		while (used < budget)
+		{
+			Entry entry;
+			synchronized (queue)
+			{
+				entry = queue.peekFirst();
+			}
+			if (entry == null)
+			{
+				break;
+			}
+			if (!allowed)
+			{
+				preempted++;
+				SmartDashboard.putNumber("Background/Preempted", preempted);
+				Log.info("Background work suspended with {} jobs pending, next {}", pending(), entry.name);
+				break;
+			}
+
+			boolean more;
+			try
+			{
+				more = entry.job.step();
+			} catch (Exception e) {
+				Log.error("Background job {}: {}", entry.name, e);
+				more = false;
+			}
+			if (!more)
+			{
+				synchronized (queue)
+				{
+					queue.pollFirst();
+				}
+			}
+			if (!allowed)
+			{
+				Log.warn("Background job {} ran {} ms into an enabled mode", entry.name,
+						(System.nanoTime() - suspendedAt) / 1.0e6);
+			}
+			used = now() - start;
+		}
+		return used;
+	}
+
+	private long now()
+	{
+		return cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+}
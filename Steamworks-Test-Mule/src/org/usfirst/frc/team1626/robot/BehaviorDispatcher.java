@@ -0,0 +1,264 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**	The {@link BehaviorDispatcher} class runs several subsystem behaviors on the same {@link DriverInput} at the same
+ *  time, so that a slow device call in one subsystem (a CAN write to the shooter, say) does not hold up another
+ *  (the drive train) in the same cycle.  Behaviors are added by name and shared out round-robin between a small
+ *  fixed set of worker threads; each worker runs its behaviors in the order they were added.
+ *
+ *  {@link #dispatch} hands the input to every worker and waits for them, but no longer than the timeout.  A behavior
+ *  that is still running after the timeout is named in the log and counted on the dashboard ("Dispatch/Overruns"),
+ *  and the cycle goes on without its worker so that the drive train is not held up.  The late worker is not handed
+ *  another input until it has finished: its behaviors are skipped for those cycles and counted ("Dispatch/Skipped"),
+ *  so a behavior never runs twice at once on its devices.  The skipped behaviors' trace channels carry their previous
+ *  values, and what the late worker commands lands in the row of the cycle in which it finishes.  Optional before and
+ *  after behaviors run on the dispatching thread around each cycle.
+ *
+ *  Dispatching a cycle is a few volatile writes and thread wake-ups; nothing is allocated.
+ */
+
+public class BehaviorDispatcher
+{
+	public interface Behavior
+	{
+		void operate(DriverInput input);
+	}
+
+	private class Worker extends Thread
+	{
+		private final List<Behavior> behaviors = new ArrayList<Behavior>();
+		private final List<Integer> indexes = new ArrayList<Integer>();
+		private volatile long assigned;
+		private volatile long completed;
+
+		Worker(int number)
+		{
+			super("Behavior-" + number);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run()
+		{
+			ThreadConfig.attach("Behavior");
+			long seen = 0;
+			while (running)
+			{
+				long c = assigned;
+				if (c == seen)
+				{
+					LockSupport.park(this);
+					continue;
+				}
+				seen = c;
+				DriverInput input = current;
+				for (int i=0; i<behaviors.size(); i++)
+				{
+					try
+					{
+						behaviors.get(i).operate(input);
+					} catch (RuntimeException e) {
+						Log.error("Behavior {}: {}", names.get(indexes.get(i)), e);
+					}
+					done.set(indexes.get(i), c);
+				}
+				completed = c;
+				LockSupport.unpark(dispatcher);
+			}
+		}
+	}
+
+	private final List<String> names = new ArrayList<String>();
+	private final List<Behavior> behaviors = new ArrayList<Behavior>();
+	private final Worker[] workers;
+	private final long timeout;
+	private Behavior before;
+	private Behavior after;
+	private AtomicLongArray done;
+
+	private volatile boolean running;
+	private long cycle;
+	private volatile DriverInput current;
+	private volatile Thread dispatcher;
+	private int overruns;
+	private int skipped;
+
+	/**
+	 * A dispatcher with the given number of workers and per-cycle timeout in seconds.
+	 */
+	public BehaviorDispatcher(int workers, double timeout)
+	{
+		this.workers = new Worker[workers];
+		this.timeout = (long)(timeout * 1.0e9);
+	}
+
+	public BehaviorDispatcher add(String name, Behavior behavior)
+	{
+		if (running)
+		{
+			throw new IllegalStateException("Behaviors must be added before the dispatcher is started");
+		}
+		names.add(name);
+		behaviors.add(behavior);
+		return this;
+	}
+
+	/**
+	 * Behaviors run on the dispatching thread before the workers start and after they have finished or timed out.
+	 */
+	public BehaviorDispatcher around(Behavior before, Behavior after)
+	{
+		this.before = before;
+		this.after = after;
+		return this;
+	}
+
+	public void start()
+	{
+		done = new AtomicLongArray(behaviors.size());
+		for (int w=0; w<workers.length; w++)
+		{
+			workers[w] = new Worker(w);
+		}
+		for (int i=0; i<behaviors.size(); i++)
+		{
+			Worker worker = workers[i % workers.length];
+			worker.behaviors.add(behaviors.get(i));
+			worker.indexes.add(i);
+		}
+		running = true;
+		for (Worker worker : workers)
+		{
+			worker.start();
+		}
+	}
+
+	public void stop()
+	{
+		running = false;
+		for (Worker worker : workers)
+		{
+			LockSupport.unpark(worker);
+		}
+	}
+
+	/**
+	 * Run every behavior on the input and wait for them, up to the timeout.  Returns false if the cycle ran over the
+	 * timeout or a worker was skipped because it was still running an earlier cycle.
+	 */
+	public boolean dispatch(DriverInput input)
+	{
+		if (before != null)
+		{
+			before.operate(input);
+		}
+
+		dispatcher = Thread.currentThread();
+		current = input;
+		long c = ++cycle;
+		boolean finished = true;
+		for (Worker worker : workers)
+		{
+			if (worker.behaviors.isEmpty())
+			{
+				continue;
+			}
+			if (worker.completed < worker.assigned)
+			{
+				skip(worker);
+				finished = false;
+				continue;
+			}
+			worker.assigned = c;
+			LockSupport.unpark(worker);
+		}
+
+		long deadline = System.nanoTime() + timeout;
+		while (!allCompleted(c))
+		{
+			long left = deadline - System.nanoTime();
+			if (left <= 0)
+			{
+				overrun(c);
+				finished = false;
+				break;
+			}
+			LockSupport.parkNanos(this, left);
+		}
+
+		if (after != null)
+		{
+			after.operate(input);
+		}
+		return finished;
+	}
+
+	public int getOverruns()
+	{
+		return overruns;
+	}
+
+	public int getSkipped()
+	{
+		return skipped;
+	}
+
+	/**
+	 * The number of behaviors, not counting before and after.
+	 */
+	public int size()
+	{
+		return behaviors.size();
+	}
+
+	private boolean allCompleted(long c)
+	{
+		for (Worker worker : workers)
+		{
+			if (worker.assigned == c && worker.completed < c)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void overrun(long c)
+	{
+		overruns++;
+		SmartDashboard.putNumber("Dispatch/Overruns", overruns);
+		if (overruns == 1 || overruns % 50 == 0)
+		{
+			StringBuilder late = new StringBuilder();
+			for (int i=0; i<done.length(); i++)
+			{
+				if (done.get(i) < c && workers[i % workers.length].assigned == c)
+				{
+					late.append(late.length() > 0 ? ", " : "").append(names.get(i));
+				}
+			}
+			Log.warn("Behavior cycle over {} ms ({} overruns), going on without: {}", timeout / 1000000, overruns, late);
+		}
+	}
+
+	private void skip(Worker worker)
+	{
+		skipped++;
+		SmartDashboard.putNumber("Dispatch/Skipped", skipped);
+		if (skipped == 1 || skipped % 50 == 0)
+		{
+			StringBuilder late = new StringBuilder();
+			for (int i : worker.indexes)
+			{
+				late.append(late.length() > 0 ? ", " : "").append(names.get(i));
+			}
+			Log.warn("Behaviors skipped, still running cycle {} ({} skipped): {}", worker.assigned, skipped, late);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
+
+import edu.wpi.first.wpilibj.Utility;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**	The {@link CatchUp} class decides what playback does with inputs that are overdue, for example after a garbage
+ *  collection pause or a slow behavior cycle.  It wraps the playback iterator; an input is outdated when the input
+ *  after it is already due, since by then its stick values have been replaced.  {@link #next} returns the inputs in
+ *  order, and the player waits for the input's time; only then does it call {@link #due}, which applies the policy
+ *  against the clock, so that an input made outdated by a stall during the wait is caught up as well.  The
+ *  policies are:
+ *
+ *  		* EXECUTE_ALL - play every input, back to back, as the recorder always did
+ *  		* COALESCE - play only the latest due input in place of all the outdated ones before it
+ *  		* SKIP - drop outdated inputs, but play any outdated input whose buttons differ from the input recorded
+ *  		  before it, so that a press or release is never lost
+ *
+ *  The number of late inputs (played after their successor was already due), and of inputs coalesced and skipped,
+ *  is kept for the run and put on the dashboard under "Auto/Catch Up/" by {@link #report}.
+ */
+
+public class CatchUp implements Iterator<DriverInput>
+{
+	public enum Policy {EXECUTE_ALL, COALESCE, SKIP};
+
+	private final Iterator<DriverInput> source;
+	private final Policy policy;
+	private final ToLongFunction<DriverInput> deadline;
+	private DriverInput pending;
+	private DriverInput previous;
+	private DriverInput edge;
+	private DriverInput current;
+	private boolean currentIsEdge;
+	private int late;
+	private int coalesced;
+	private int skipped;
+
+	public CatchUp(Iterator<DriverInput> source, Policy policy, ToLongFunction<DriverInput> deadline)
+	{
+		this.source = source;
+		this.policy = policy;
+		this.deadline = deadline;
+	}
+
+	/**
+	 * The policy with the given name ("Skip", "coalesce", "Execute All", ...), or the default if there is none.
+	 */
+	public static Policy fromName(String name, Policy defaultPolicy)
+	{
+		try
+		{
+			return Policy.valueOf(name.trim().toUpperCase().replace(' ', '_'));
+		} catch (IllegalArgumentException e) {
+			Log.warn("Unknown catch-up policy {}, using {}", name, defaultPolicy);
+			return defaultPolicy;
+		}
+	}
+
+	public Policy getPolicy()
+	{
+		return policy;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		return (pending != null) || source.hasNext();
+	}
+
+	/**
+	 * The next input in order.  Call {@link #due} with it once it is time to play it.
+	 */
+	@Override
+	public DriverInput next()
+	{
+		current = take();
+		currentIsEdge = (current == edge);
+		return current;
+	}
+
+	/**
+	 * The input to play now in place of the one last returned by {@link #next}, which is due: that input, or a
+	 * later one if it is already outdated and the policy drops it.  Inputs dropped here are not returned by next.
+	 */
+	public DriverInput due(DriverInput scheduled)
+	{
+		DriverInput input = scheduled;
+		boolean isEdge = (scheduled == current) ? currentIsEdge : (scheduled == edge);
+		long now = Utility.getFPGATime();
+		while (hasNext())
+		{
+			DriverInput following = peek();
+			if (deadline.applyAsLong(following) > now)
+			{
+				break;
+			}
+
+			// The following input is already due, so this one is outdated
+			if (policy == Policy.EXECUTE_ALL || (policy == Policy.SKIP && isEdge))
+			{
+				late++;
+				break;
+			}
+			if (policy == Policy.COALESCE)
+			{
+				coalesced++;
+			} else
+			{
+				skipped++;
+			}
+			input = take();
+			isEdge = (input == edge);
+		}
+		current = null;
+		return input;
+	}
+
+	public int getLate()
+	{
+		return late;
+	}
+
+	public int getCoalesced()
+	{
+		return coalesced;
+	}
+
+	public int getSkipped()
+	{
+		return skipped;
+	}
+
+	public void report()
+	{
+		SmartDashboard.putString("Auto/Catch Up/Policy", policy.name());
+		SmartDashboard.putNumber("Auto/Catch Up/Late", late);
+		SmartDashboard.putNumber("Auto/Catch Up/Coalesced", coalesced);
+		SmartDashboard.putNumber("Auto/Catch Up/Skipped", skipped);
+		if (late + coalesced + skipped > 0)
+		{
+			Log.info("Catch-up ({}): {} late, {} coalesced, {} skipped", policy, late, coalesced, skipped);
+		}
+	}
+
+	private DriverInput peek()
+	{
+		if (pending == null)
+		{
+			pending = read();
+		}
+		return pending;
+	}
+
+	private DriverInput take()
+	{
+		DriverInput input;
+		if (pending != null)
+		{
+			input = pending;
+			pending = null;
+		} else if (source.hasNext())
+		{
+			input = read();
+		} else
+		{
+			throw new NoSuchElementException();
+		}
+		return input;
+	}
+
+	/*
+	 * Inputs are compared with the one recorded before them as they are read, so edges are found in recorded
+	 * order whether an input is played or skipped.
+	 */
+	private DriverInput read()
+	{
+		DriverInput input = source.next();
+		if ((previous != null) && input.buttonsDiffer(previous))
+		{
+			edge = input;
+		}
+		previous = input;
+		return input;
+	}
+}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 import edu.wpi.first.wpilibj.Utility;
 
@@ -19,6 +20,11 @@ public class DriverInput
 		inputNames.add(name);
 	}
 
+	public static int inputCount()
+	{
+		return inputNames.size();
+	}
+
 	public String toString()
 	{
 		StringBuffer str=new StringBuffer();
@@ -74,6 +80,23 @@ public class DriverInput
 		//		System.out.println("Driver input offset is " + timeOffset + " = " + FPGAtime + " - " + recordStart);
 	}
 
+	/*
+	 * An input read back from a recording; the offset comes from the recording, so the clock is not read and this
+	 * can be used off the robot.
+	 */
+	DriverInput(long timeOffset, Object... in)
+	{
+		inputs=new HashMap<String, Object>();
+
+		int nameIdx=0;
+
+		for (Object obj : in)
+		{
+			inputs.put(inputNames.get(nameIdx++), obj);
+		}
+		this.timeOffset=timeOffset;
+	}
+
 	public Object getInput(String name)
 	{
 		return inputs.get(name);
@@ -103,6 +126,23 @@ public class DriverInput
 		}
 	}
 
+	/**
+	 * True if any button input is different in the other input, that is, there is a press or release between them.
+	 */
+	public boolean buttonsDiffer(DriverInput other)
+	{
+		for (String name: inputNames)
+		{
+			Object mine = inputs.get(name);
+			Object theirs = other.inputs.get(name);
+			if (((mine instanceof Boolean) || (theirs instanceof Boolean)) && !Objects.equals(mine, theirs))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
 	public long getTimeOffset()
 	{
 		return timeOffset;
@@ -114,9 +154,14 @@ public class DriverInput
 		return this;
 	}
 
+	public static long getRecordTime()
+	{
+		return recordStart;
+	}
+
 	public static void setRecordTime()
 	{
 		recordStart=Utility.getFPGATime();
-		System.out.println("recordStart is " + recordStart);
+		Log.info("recordStart is {}", recordStart);
 	}
 }
@@ -0,0 +1,242 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**	The {@link FlightEvents} class emits JDK Flight Recorder events for the control loop, playback, file I/O, mode
+ *  transitions and actuator write batches, so that a recording of the robot (or of a headless run on a laptop) can
+ *  be opened in Mission Control and lined up with garbage collection and thread activity.  The events are in the
+ *  "FRC 1626" category and named "frc1626.ControlCycle", "frc1626.Playback", "frc1626.FileIO",
+ *  "frc1626.ModeTransition" and "frc1626.ActuatorBatch".
+ *
+ *  The robot is built for Java 8, which has no jdk.jfr package, so the event types are defined at run time through
+ *  jdk.jfr.EventFactory by reflection.  Events are off unless the JVM is started with -Dfrc1626.flightEvents=true
+ *  (or {@link #enable} is called before the robot starts) and the JVM has Flight Recorder.  When they are off,
+ *  {@link #begin} returns null and every other method returns at once, so a call site costs a static field read
+ *  and allocates nothing.  Start a recording as usual, for example with -XX:StartFlightRecording.
+ *
+ *  A duration event is bracketed by {@link #begin} and one of the typed commit methods, which take the handle that
+ *  begin returned; {@link #playback} is an instant event.
+ */
+
+public class FlightEvents
+{
+	public static final int CYCLE = 0;
+	public static final int PLAYBACK = 1;
+	public static final int FILE_IO = 2;
+	public static final int TRANSITION = 3;
+	public static final int ACTUATORS = 4;
+
+	private static final String[] names = {"ControlCycle", "Playback", "FileIO", "ModeTransition", "ActuatorBatch"};
+	private static final String[] labels = {"Control Cycle", "Playback Event", "File I/O", "Mode Transition",
+			"Actuator Batch"};
+	private static final String[][] fieldNames = {
+		{"mode", "period"},
+		{"offset", "expected", "actual", "error"},
+		{"operation", "file", "bytes"},
+		{"transition", "overBudget"},
+		{"source", "behaviors"},
+	};
+	private static final Class<?>[][] fieldTypes = {
+		{String.class, long.class},
+		{long.class, long.class, long.class, long.class},
+		{String.class, String.class, long.class},
+		{String.class, boolean.class},
+		{String.class, int.class},
+	};
+
+	private static boolean enabled;
+	private static Object[] factories;
+	private static Method newEvent;
+	private static Method eventBegin;
+	private static Method eventEnd;
+	private static Method eventCommit;
+	private static Method eventSet;
+
+	static
+	{
+		if (Boolean.getBoolean("frc1626.flightEvents"))
+		{
+			enable();
+		}
+	}
+
+	/**
+	 * Define the event types and start emitting.  Returns false, and events stay off, if this JVM has no Flight
+	 * Recorder.  This is meant to be called once, before the robot's threads start.
+	 */
+	public static synchronized boolean enable()
+	{
+		if (enabled)
+		{
+			return true;
+		}
+		try
+		{
+			Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+			Class<?> valueClass = Class.forName("jdk.jfr.ValueDescriptor");
+			Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+			Class<?> eventClass = Class.forName("jdk.jfr.Event");
+			Constructor<?> annotation = annotationClass.getConstructor(Class.class, Object.class);
+			Constructor<?> value = valueClass.getConstructor(Class.class, String.class, List.class);
+			Method create = factoryClass.getMethod("create", List.class, List.class);
+			Class<?> name = Class.forName("jdk.jfr.Name");
+			Class<?> label = Class.forName("jdk.jfr.Label");
+			Class<?> category = Class.forName("jdk.jfr.Category");
+			Class<?> stackTrace = Class.forName("jdk.jfr.StackTrace");
+
+			Object[] defined = new Object[names.length];
+			for (int t=0; t<names.length; t++)
+			{
+				List<Object> annotations = Arrays.asList(
+						annotation.newInstance(name, "frc1626." + names[t]),
+						annotation.newInstance(label, labels[t]),
+						annotation.newInstance(category, new String[] {"FRC 1626"}),
+						annotation.newInstance(stackTrace, Boolean.FALSE));
+				List<Object> fields = new ArrayList<Object>();
+				for (int f=0; f<fieldNames[t].length; f++)
+				{
+					fields.add(value.newInstance(fieldTypes[t][f], fieldNames[t][f], new ArrayList<Object>()));
+				}
+				defined[t] = create.invoke(null, annotations, fields);
+			}
+
+			newEvent = factoryClass.getMethod("newEvent");
+			eventBegin = eventClass.getMethod("begin");
+			eventEnd = eventClass.getMethod("end");
+			eventCommit = eventClass.getMethod("commit");
+			eventSet = eventClass.getMethod("set", int.class, Object.class);
+			factories = defined;
+			enabled = true;
+			Log.info("Flight Recorder events enabled");
+		} catch (ClassNotFoundException e) {
+			Log.warn("Flight Recorder events requested, but this JVM has no Flight Recorder");
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			Log.error("Flight Recorder events could not be defined", e);
+		}
+		return enabled;
+	}
+
+	public static boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * Start a duration event of the given type.  Returns null when events are off.
+	 */
+	public static Object begin(int type)
+	{
+		if (!enabled)
+		{
+			return null;
+		}
+		Object event = create(type);
+		try
+		{
+			if (event != null)
+			{
+				eventBegin.invoke(event);
+			}
+			return event;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			fail(e);
+			return null;
+		}
+	}
+
+	/**
+	 * One pass of the main loop, in a mode; period is the time since the previous cycle began, in microseconds.
+	 */
+	public static void cycle(Object event, String mode, long period)
+	{
+		if (event != null)
+		{
+			commit(event, mode, period);
+		}
+	}
+
+	/**
+	 * A playback event, with its time offset in the routine, and when it was due and when it ran (FPGA microseconds).
+	 */
+	public static void playback(long offset, long expected, long actual)
+	{
+		if (enabled)
+		{
+			commit(create(PLAYBACK), offset, expected, actual, actual - expected);
+		}
+	}
+
+	public static void io(Object event, String operation, String file, long bytes)
+	{
+		if (event != null)
+		{
+			commit(event, operation, file, bytes);
+		}
+	}
+
+	public static void transition(Object event, String name, boolean overBudget)
+	{
+		if (event != null)
+		{
+			commit(event, name, overBudget);
+		}
+	}
+
+	/**
+	 * One set of actuator commands, from the behavior method (behaviors is 1) or the behavior dispatcher.
+	 */
+	public static void actuators(Object event, String source, int behaviors)
+	{
+		if (event != null)
+		{
+			commit(event, source, behaviors);
+		}
+	}
+
+	private static Object create(int type)
+	{
+		try
+		{
+			return newEvent.invoke(factories[type]);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			fail(e);
+			return null;
+		}
+	}
+
+	private static void commit(Object event, Object... values)
+	{
+		if (event == null)
+		{
+			return;
+		}
+		try
+		{
+			eventEnd.invoke(event);
+			for (int i=0; i<values.length; i++)
+			{
+				eventSet.invoke(event, i, values[i]);
+			}
+			eventCommit.invoke(event);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			fail(e);
+		}
+	}
+
+	/*
+	 * An event that cannot be emitted once will not be emitted later either; turn events off rather than log every
+	 * cycle.
+	 */
+	private static synchronized void fail(Exception e)
+	{
+		if (enabled)
+		{
+			enabled = false;
+			Log.error("Flight Recorder events disabled", e);
+		}
+	}
+}
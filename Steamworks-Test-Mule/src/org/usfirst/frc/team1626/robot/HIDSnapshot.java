@@ -0,0 +1,149 @@
+package org.usfirst.frc.team1626.robot;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.GenericHID;
+
+/**	The {@link HIDSnapshot} class holds one sample of a driver station joystick or controller.  All of the axes and
+ *  the whole button bitmask are fetched from the {@link DriverStation} once per cycle by {@link #updateAll}, and
+ *  everything that reads the controller during that cycle (the {@link DriverInput} capture in teleopPeriodic, the
+ *  {@link ActionRecorder.StateButton}s and {@link Toggle}s) sees the same sample.
+ *
+ *  Rising edges, falling edges and toggle states are computed for all buttons at once with bitwise operations on the
+ *  button mask.  Buttons are numbered from 1, as in {@link GenericHID#getRawButton}.
+ *
+ *  There is one snapshot per driver station port; use {@link #get} to find it.
+ */
+
+public class HIDSnapshot
+{
+	private static final int maxPorts = 6;
+	private static final int maxAxes = 12;
+	private static final HIDSnapshot[] snapshots = new HIDSnapshot[maxPorts];
+
+	// Axis numbers used by XboxController
+	public static final int kLeftTriggerAxis = 2;
+	public static final int kRightTriggerAxis = 3;
+
+	// Button numbers used by XboxController
+	public static final int kA = 1;
+	public static final int kB = 2;
+	public static final int kX = 3;
+	public static final int kY = 4;
+	public static final int kLeftBumper = 5;
+	public static final int kRightBumper = 6;
+	public static final int kBack = 7;
+	public static final int kStart = 8;
+
+	private final int port;
+	private final double[] axes = new double[maxAxes];
+	private int axisCount;
+	private int buttons;
+	private int rising;
+	private int falling;
+	private int toggled;
+
+	private HIDSnapshot(int port)
+	{
+		this.port = port;
+	}
+
+	public static synchronized HIDSnapshot get(int port)
+	{
+		if (snapshots[port] == null)
+		{
+			snapshots[port] = new HIDSnapshot(port);
+		}
+		return snapshots[port];
+	}
+
+	public static HIDSnapshot get(GenericHID hid)
+	{
+		return get(hid.getPort());
+	}
+
+	/**
+	 * Sample every controller that has a snapshot.  Call this once at the start of each periodic method.
+	 */
+	public static void updateAll()
+	{
+		DriverStation ds = DriverStation.getInstance();
+		for (HIDSnapshot snap : snapshots)
+		{
+			if (snap != null)
+			{
+				snap.update(ds);
+			}
+		}
+	}
+
+	void update(DriverStation ds)
+	{
+		axisCount = Math.min(ds.getStickAxisCount(port), maxAxes);
+		for (int i=0; i<axisCount; i++)
+		{
+			axes[i] = ds.getStickAxis(port, i);
+		}
+		sample(ds.getStickButtons(port));
+	}
+
+	/*
+	 * Edge detection for all buttons at once.
+	 */
+	void sample(int current)
+	{
+		rising = current & ~buttons;
+		falling = ~current & buttons;
+		toggled ^= rising;
+		buttons = current;
+	}
+
+	public int getPort()
+	{
+		return port;
+	}
+
+	public double getRawAxis(int axis)
+	{
+		return (axis < axisCount) ? axes[axis] : 0.0;
+	}
+
+	public int getButtons()
+	{
+		return buttons;
+	}
+
+	public boolean getRawButton(int button)
+	{
+		return (buttons & mask(button)) != 0;
+	}
+
+	public boolean risingEdge(int button)
+	{
+		return (rising & mask(button)) != 0;
+	}
+
+	public boolean fallingEdge(int button)
+	{
+		return (falling & mask(button)) != 0;
+	}
+
+	public boolean toggleState(int button)
+	{
+		return (toggled & mask(button)) != 0;
+	}
+
+	public int getRisingEdges()
+	{
+		return rising;
+	}
+
+	public int getFallingEdges()
+	{
+		return falling;
+	}
+
+	public static int mask(int button)
+	{
+		return 1 << (button-1);
+	}
+}
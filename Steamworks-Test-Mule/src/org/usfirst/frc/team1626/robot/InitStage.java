@@ -0,0 +1,185 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.wpi.first.wpilibj.Utility;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**	The {@link InitStage} class runs device bring-up steps in parallel, respecting the dependencies between them.
+ *  Each step names the steps it depends on, which must have been added before it.  Steps with no dependency between
+ *  them run at the same time on a small thread pool.
+ *
+ *  {@link #run} returns once every foreground step has finished.  Background steps (such as starting the camera or
+ *  probing firmware versions) are started the same way but are not waited for, so they do not delay code-ready.
+ *
+ *  The time each step took is logged and put on the dashboard under "Init/".  A step that throws is logged, and the
+ *  steps depending on it are skipped.  If any foreground step failed or was skipped, {@link #run} throws once all
+ *  of them are reported, since the robot cannot run with devices missing; a failed background step is only logged.
+ */
+
+public class InitStage
+{
+	private static class Step
+	{
+		String name;
+		Runnable action;
+		String[] deps;
+		boolean background;
+		CompletableFuture<Void> done;
+		volatile long elapsed;
+	}
+
+	private final Map<String, Step> steps = new LinkedHashMap<String, Step>();
+
+	public InitStage step(String name, Runnable action, String... deps)
+	{
+		return add(name, action, false, deps);
+	}
+
+	public InitStage background(String name, Runnable action, String... deps)
+	{
+		return add(name, action, true, deps);
+	}
+
+	private InitStage add(String name, Runnable action, boolean background, String... deps)
+	{
+		for (String dep : deps)
+		{
+			if (!steps.containsKey(dep))
+			{
+				throw new IllegalArgumentException("Init step " + name + " depends on unknown step " + dep);
+			}
+		}
+		Step step = new Step();
+		step.name = name;
+		step.action = action;
+		step.deps = deps;
+		step.background = background;
+		steps.put(name, step);
+		return this;
+	}
+
+	/**
+	 * Run all steps on a pool of the given size and wait for the foreground steps.  Returns the wall time in seconds.
+	 *
+	 * @throws IllegalStateException if a foreground step failed or was skipped
+	 */
+	public double run(int threads)
+	{
+		long start = Utility.getFPGATime();
+		AtomicInteger threadNum = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "Init-" + threadNum.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+
+		List<CompletableFuture<Void>> foreground = new ArrayList<CompletableFuture<Void>>();
+		for (Step step : steps.values())
+		{
+			CompletableFuture<?>[] before = new CompletableFuture<?>[step.deps.length];
+			for (int i=0; i<step.deps.length; i++)
+			{
+				before[i] = steps.get(step.deps[i]).done;
+			}
+			step.done = CompletableFuture.allOf(before).thenRunAsync(() -> runStep(step), pool);
+			if (step.background)
+			{
+				step.done.whenComplete((v, e) -> report(step, (e != null && e.getCause() != null) ? e.getCause() : e));
+			} else
+			{
+				foreground.add(step.done);
+			}
+		}
+
+		for (CompletableFuture<Void> f : foreground)
+		{
+			try
+			{
+				f.join();
+			} catch (RuntimeException e) {
+				// reported below
+			}
+		}
+		List<String> failed = new ArrayList<String>();
+		Throwable firstFailure = null;
+		for (Step step : steps.values())
+		{
+			if (!step.background)
+			{
+				Throwable e = step.done.isCompletedExceptionally() ? exceptionOf(step.done) : null;
+				report(step, e);
+				if (e != null)
+				{
+					failed.add(step.name);
+					if (firstFailure == null)
+					{
+						firstFailure = e;
+					}
+				}
+			}
+		}
+
+		List<CompletableFuture<Void>> all = new ArrayList<CompletableFuture<Void>>();
+		for (Step step : steps.values())
+		{
+			all.add(step.done);
+		}
+		CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[all.size()])).whenComplete((v, e) -> pool.shutdown());
+
+		double total = ((double)(Utility.getFPGATime() - start)) / 1000000.0;
+		SmartDashboard.putNumber("Init/Total", total);
+		if (!failed.isEmpty())
+		{
+			throw new IllegalStateException("Init steps did not complete: " + String.join(", ", failed), firstFailure);
+		}
+		Log.info("Init stage finished in {} s", total);
+		return total;
+	}
+
+	private void runStep(Step step)
+	{
+		long t0 = Utility.getFPGATime();
+		try
+		{
+			step.action.run();
+		} finally
+		{
+			step.elapsed = Utility.getFPGATime() - t0;
+		}
+	}
+
+	private void report(Step step, Throwable e)
+	{
+		double secs = ((double)step.elapsed) / 1000000.0;
+		if (e == null)
+		{
+			SmartDashboard.putNumber("Init/" + step.name, secs);
+			Log.info("Init {} took {} s", step.name, secs);
+		} else if (step.elapsed == 0)
+		{
+			Log.warn("Init {} skipped: {}", step.name, e);
+		} else
+		{
+			Log.error("Init {} failed after {} s", step.name, secs, e);
+		}
+	}
+
+	private static Throwable exceptionOf(CompletableFuture<Void> f)
+	{
+		try
+		{
+			f.join();
+			return null;
+		} catch (RuntimeException e) {
+			return (e.getCause() != null) ? e.getCause() : e;
+		}
+	}
+}
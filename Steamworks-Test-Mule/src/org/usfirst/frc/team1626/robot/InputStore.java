@@ -0,0 +1,118 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**	The {@link InputStore} class holds a recorded routine in primitive arrays: one time offset per row and one value
+ *  and kind per cell.  Booleans are stored as 1.0 and 0.0 with kind BUTTON, axes as their value with kind AXIS, and
+ *  a "null" cell has kind NONE.  The arrays grow as rows are added and are kept when the store is cleared, so a
+ *  store can be refilled without allocating.
+ */
+
+public class InputStore
+{
+	public static final byte NONE = 0;
+	public static final byte AXIS = 1;
+	public static final byte BUTTON = 2;
+
+	private int columns;
+	private int rows;
+	private long[] times = new long[1024];
+	private double[] values = new double[0];
+	private byte[] kinds = new byte[0];
+
+	public void clear(int columns)
+	{
+		this.columns = columns;
+		rows = 0;
+	}
+
+	public int getColumns()
+	{
+		return columns;
+	}
+
+	public int size()
+	{
+		return rows;
+	}
+
+	/**
+	 * Start a new row; all of its cells are NONE until set.
+	 */
+	public void addRow(long time)
+	{
+		if (rows == times.length)
+		{
+			times = Arrays.copyOf(times, rows * 2);
+		}
+		int needed = (rows+1) * columns;
+		if (needed > values.length)
+		{
+			int size = Math.max(needed, times.length * columns);
+			values = Arrays.copyOf(values, size);
+			kinds = Arrays.copyOf(kinds, size);
+		}
+		times[rows] = time;
+		Arrays.fill(kinds, rows * columns, needed, NONE);
+		rows++;
+	}
+
+	public void setAxis(int column, double value)
+	{
+		int cell = (rows-1) * columns + column;
+		values[cell] = value;
+		kinds[cell] = AXIS;
+	}
+
+	public void setButton(int column, boolean value)
+	{
+		int cell = (rows-1) * columns + column;
+		values[cell] = value ? 1.0 : 0.0;
+		kinds[cell] = BUTTON;
+	}
+
+	public long getTime(int row)
+	{
+		return times[row];
+	}
+
+	public byte getKind(int row, int column)
+	{
+		return kinds[row * columns + column];
+	}
+
+	public double getValue(int row, int column)
+	{
+		return values[row * columns + column];
+	}
+
+	/**
+	 * Build the {@link DriverInput}s that the robot behavior method is invoked with.
+	 */
+	public List<DriverInput> toDriverInputs()
+	{
+		List<DriverInput> inputs = new ArrayList<DriverInput>(rows);
+		Object[] row = new Object[columns];
+		for (int r=0; r<rows; r++)
+		{
+			for (int c=0; c<columns; c++)
+			{
+				switch (kinds[r * columns + c])
+				{
+				case AXIS:
+					row[c] = Double.valueOf(values[r * columns + c]);
+					break;
+				case BUTTON:
+					row[c] = Boolean.valueOf(values[r * columns + c] != 0.0);
+					break;
+				default:
+					row[c] = null;
+				}
+			}
+			inputs.add(new DriverInput(times[r], row));
+		}
+		return inputs;
+	}
+}
@@ -0,0 +1,189 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**	The {@link LatencyCompensation} class learns the systematic timing error of playback and moves the deadlines of
+ *  the next run to cancel it.  For each playback mode (the Notifier, the playback thread, the timeline player, ...)
+ *  it keeps a model of the error of an input as an offset plus a drift proportional to its time into the routine:
+ *
+ *  		error(t) = offset + drift * t		(microseconds, t in seconds since the start of playback)
+ *
+ *  and each input is scheduled that much earlier.  At the end of a run the remaining (residual) error is fitted the
+ *  same way, added to the correction that was applied to get the raw error of the run, and the model moves part of
+ *  the way towards it.  The offset and drift are kept within safety limits, and a run with too few inputs is not
+ *  learned from.
+ *
+ *  The models are saved in /home/lvuser/compensation.properties after every run.  The residual mean and standard
+ *  deviation, and the model in use, are put on the dashboard under "Auto/Compensation/".  Compensation can be
+ *  switched off with "Auto/Compensation/Enabled"; the models keep learning from the raw error.
+ */
+
+public class LatencyCompensation
+{
+	public static final String defaultFileName = "/home/lvuser/compensation.properties";
+
+	private static final double gain = 0.5;
+	private static final double maxOffset = 5000.0;		// microseconds
+	private static final double maxDrift = 1000.0;		// microseconds per second
+	private static final int minSamples = 50;
+
+	private final File file;
+	private final MatchLogWriter writer;
+	private final Properties models = new Properties();
+
+	// The run in progress
+	private volatile boolean active;
+	private String mode;
+	private boolean enabled;
+	private double offset;
+	private double drift;
+	private long n;
+	private double sx, sy, sxx, sxy, syy;
+
+	public LatencyCompensation(File file)
+	{
+		this.file = file;
+		this.writer = new MatchLogWriter(file.getParentFile(), false);
+		if (file.isFile())
+		{
+			try (InputStream in = new FileInputStream(file))
+			{
+				models.load(in);
+			} catch (IOException e) {
+				Log.error("{}: {}", file.getAbsolutePath(), e);
+			}
+		}
+		SmartDashboard.putBoolean("Auto/Compensation/Enabled",
+				SmartDashboard.getBoolean("Auto/Compensation/Enabled", true));
+	}
+
+	/**
+	 * Start a playback run in the named mode, using what was learned for that mode.
+	 */
+	public void begin(String mode)
+	{
+		this.mode = mode;
+		enabled = SmartDashboard.getBoolean("Auto/Compensation/Enabled", true);
+		offset = clamp(getOffset(mode), maxOffset);
+		drift = clamp(getDrift(mode), maxDrift);
+		n = 0;
+		sx = sy = sxx = sxy = syy = 0;
+		active = true;
+		Log.info("Compensation for {}: offset {} us, drift {} us/s{}", mode, (long)offset, drift,
+				enabled ? "" : " (disabled)");
+	}
+
+	/**
+	 * How much earlier than its recorded time (microseconds) to schedule the input at the given offset.
+	 */
+	public long correction(long timeOffset)
+	{
+		if (!active || !enabled)
+		{
+			return 0;
+		}
+		return (long)(offset + drift * (timeOffset / 1000000.0));
+	}
+
+	/**
+	 * Account for the error of one input against its recorded time; ignored outside a run.
+	 */
+	public void add(long timeOffset, long error)
+	{
+		if (!active)
+		{
+			return;
+		}
+		double x = timeOffset / 1000000.0;
+		n++;
+		sx += x;
+		sy += error;
+		sxx += x * x;
+		sxy += x * error;
+		syy += ((double)error) * error;
+	}
+
+	/**
+	 * End the run: report the residual error, update the model for the mode and save it.
+	 */
+	public void end()
+	{
+		if (!active)
+		{
+			return;
+		}
+		active = false;
+		if (n == 0)
+		{
+			return;
+		}
+
+		double mean = sy / n;
+		double sd = Math.sqrt(Math.max(0.0, syy / n - mean * mean));
+		SmartDashboard.putString("Auto/Compensation/Mode", mode);
+		SmartDashboard.putNumber("Auto/Compensation/Residual Mean", mean / 1000000.0);
+		SmartDashboard.putNumber("Auto/Compensation/Residual SD", sd / 1000000.0);
+		Log.info("{} playback residual error: mean {} us, sd {} us over {} inputs", mode, (long)mean, (long)sd, n);
+
+		if (n < minSamples)
+		{
+			return;
+		}
+
+		double d = n * sxx - sx * sx;
+		double residualDrift = (d != 0) ? (n * sxy - sx * sy) / d : 0.0;
+		double residualOffset = (sy - residualDrift * sx) / n;
+
+		// The raw error of this run is the residual plus whatever correction was applied
+		double rawOffset = residualOffset + (enabled ? offset : 0.0);
+		double rawDrift = residualDrift + (enabled ? drift : 0.0);
+		double newOffset = clamp(offset + gain * (rawOffset - offset), maxOffset);
+		double newDrift = clamp(drift + gain * (rawDrift - drift), maxDrift);
+
+		models.setProperty(mode + ".offset", Double.toString(newOffset));
+		models.setProperty(mode + ".drift", Double.toString(newDrift));
+		models.setProperty(mode + ".runs", Integer.toString(getRuns(mode) + 1));
+		SmartDashboard.putNumber("Auto/Compensation/" + mode + " Offset", newOffset / 1000000.0);
+		SmartDashboard.putNumber("Auto/Compensation/" + mode + " Drift", newDrift / 1000000.0);
+		Log.info("{} compensation now offset {} us, drift {} us/s", mode, (long)newOffset, newDrift);
+
+		Properties snapshot = (Properties)models.clone();
+		writer.submit(file.getName(), out -> snapshot.store(out, "Playback latency compensation"));
+	}
+
+	public double getOffset(String mode)
+	{
+		return getDouble(mode + ".offset");
+	}
+
+	public double getDrift(String mode)
+	{
+		return getDouble(mode + ".drift");
+	}
+
+	public int getRuns(String mode)
+	{
+		return (int)getDouble(mode + ".runs");
+	}
+
+	private double getDouble(String key)
+	{
+		try
+		{
+			return Double.parseDouble(models.getProperty(key, "0"));
+		} catch (NumberFormatException e) {
+			return 0.0;
+		}
+	}
+
+	private static double clamp(double value, double limit)
+	{
+		return Math.max(-limit, Math.min(limit, value));
+	}
+}
@@ -0,0 +1,174 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.util.Arrays;
+
+import edu.wpi.first.wpilibj.Utility;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**	The {@link LatencyTracer} class measures how long a joystick value takes to reach the motors.  A traced cycle is
+ *  stamped with the FPGA time at four points:
+ *
+ *  		* ARRIVAL - the start of the loop cycle, when the Driver Station data is read (with the DS_PACKET loop
+ *  		  mode this is the arrival of the packet; with FIXED_PERIOD the packet may have been waiting up to a period)
+ *  		* INPUT - the {@link DriverInput} has been built
+ *  		* DISPATCH - {@link ActionRecorder#input} is about to invoke the behavior method
+ *  		* ACTUATOR - the drive motors have been set
+ *
+ *  The time between each pair of stamps, and from the first to the last, goes into a histogram of 10 us buckets.
+ *  The median, 99th percentile and maximum of each are put on the dashboard under "Latency/" and logged by
+ *  {@link #report}.
+ *
+ *  Only every sampleEvery-th cycle is traced, and a stamp is a clock read and an array store, so the tracer can
+ *  stay on in competition.  Stamps outside a traced cycle (such as actuator commands during autonomous) are ignored.
+ */
+
+public class LatencyTracer
+{
+	public static final int ARRIVAL = 0;
+	public static final int INPUT = 1;
+	public static final int DISPATCH = 2;
+	public static final int ACTUATOR = 3;
+	private static final int stages = 4;
+
+	private static final String[] intervalNames = {"Arrival to Input", "Input to Dispatch", "Dispatch to Actuator",
+			"End to End"};
+	private static final int intervals = intervalNames.length;
+
+	private static final int bucketWidth = 10;		// microseconds
+	private static final int buckets = 5000;		// up to 50 ms, the last bucket holds everything longer
+	private static final int reportEvery = 250;
+
+	private final int sampleEvery;
+	private final long[] stamps = new long[stages];
+	private final int[][] histograms = new int[intervals][buckets];
+	private final long[] max = new long[intervals];
+	private long cycles;
+	private long traced;
+	private boolean active;
+
+	public LatencyTracer(int sampleEvery)
+	{
+		this.sampleEvery = Math.max(1, sampleEvery);
+	}
+
+	/**
+	 * Start a cycle at the given FPGA time of arrival; it is traced if it is one of the sampled cycles.
+	 */
+	public void beginCycle(long arrival)
+	{
+		active = (cycles++ % sampleEvery) == 0;
+		if (active)
+		{
+			stamps[ARRIVAL] = arrival;
+			for (int i=1; i<stages; i++)
+			{
+				stamps[i] = 0;
+			}
+		}
+	}
+
+	public void mark(int stage)
+	{
+		if (active && stamps[stage] == 0)
+		{
+			stamps[stage] = Utility.getFPGATime();
+		}
+	}
+
+	/**
+	 * End the cycle.  A cycle missing a stamp (the motors were not set, say) is not counted.
+	 */
+	public void endCycle()
+	{
+		if (!active)
+		{
+			return;
+		}
+		active = false;
+		for (int i=1; i<stages; i++)
+		{
+			if (stamps[i] == 0)
+			{
+				return;
+			}
+		}
+		for (int i=0; i<stages-1; i++)
+		{
+			add(i, stamps[i+1] - stamps[i]);
+		}
+		add(intervals-1, stamps[ACTUATOR] - stamps[ARRIVAL]);
+
+		if (++traced % reportEvery == 0)
+		{
+			publish();
+		}
+	}
+
+	public long getTraced()
+	{
+		return traced;
+	}
+
+	/**
+	 * The latency at a percentile (0 to 100) of an interval, in microseconds, to the bucket width.
+	 */
+	public long percentile(int interval, double percent)
+	{
+		long wanted = (long)Math.ceil(traced * percent / 100.0);
+		long seen = 0;
+		int[] histogram = histograms[interval];
+		for (int b=0; b<buckets; b++)
+		{
+			seen += histogram[b];
+			if (seen >= wanted && seen > 0)
+			{
+				return Math.min((long)(b+1) * bucketWidth, max[interval]);
+			}
+		}
+		return max[interval];
+	}
+
+	public void reset()
+	{
+		for (int i=0; i<intervals; i++)
+		{
+			Arrays.fill(histograms[i], 0);
+			max[i] = 0;
+		}
+		traced = 0;
+	}
+
+	public void report()
+	{
+		if (traced == 0)
+		{
+			return;
+		}
+		publish();
+		for (int i=0; i<intervals; i++)
+		{
+			Log.info("Latency {}: median {} us, p99 {} us, max {} us over {} cycles", intervalNames[i],
+					percentile(i, 50), percentile(i, 99), max[i], traced);
+		}
+	}
+
+	private void add(int interval, long latency)
+	{
+		int b = (int)Math.min(Math.max(latency, 0) / bucketWidth, buckets-1);
+		histograms[interval][b]++;
+		if (latency > max[interval])
+		{
+			max[interval] = latency;
+		}
+	}
+
+	private void publish()
+	{
+		for (int i=0; i<intervals; i++)
+		{
+			SmartDashboard.putNumber("Latency/" + intervalNames[i] + " p50", percentile(i, 50) / 1000000.0);
+			SmartDashboard.putNumber("Latency/" + intervalNames[i] + " p99", percentile(i, 99) / 1000000.0);
+			SmartDashboard.putNumber("Latency/" + intervalNames[i] + " Max", max[i] / 1000000.0);
+		}
+	}
+}
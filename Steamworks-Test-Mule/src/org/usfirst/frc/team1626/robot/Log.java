@@ -0,0 +1,224 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**	The {@link Log} class is a small leveled logger for the robot code.  Console output on the roboRio goes through
+ *  netconsole and can block the caller, so messages are not written by the thread that logs them.  Instead the
+ *  format string and its argument array are dropped into a preallocated ring buffer, and a low priority background
+ *  thread formats and prints them.  The slot keeps the varargs array the call already made, so any number of
+ *  arguments is kept.
+ *
+ *  Messages use "{}" placeholders, for example:
+ *
+ *  		Log.info("Auto File has {} elements", driverInputs.size());
+ *
+ *  A Throwable given as the last argument has its stack trace printed after the message, whether or not a
+ *  placeholder also shows it, so "Log.error("{}: {}", file, e)" keeps the trace.
+ *
+ *  Each line starts with the wall-clock time the message was logged, to the millisecond ("HH:mm:ss.SSS"), in the
+ *  robot's time zone.  The roboRio takes its clock from the Driver Station when it connects, so these times line up
+ *  with the Driver Station and FMS logs.
+ *
+ *  A message whose level is below the current level is discarded before anything is stored or formatted.  When the
+ *  ring is full the message is dropped and counted rather than making the caller wait; the count is available from
+ *  {@link #getDropped} and is reported by the writer thread once there is room again.
+ */
+
+public class Log
+{
+	public enum Level {DEBUG, INFO, WARN, ERROR, OFF};
+
+	private static final int capacity = 1024;		// must be a power of two
+	private static final long idleNanos = 2000000;
+	private static final DateTimeFormatter timeFmt = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+	private static volatile Level level = Level.INFO;
+	private static PrintStream out = System.out;
+
+	private static final long[] times = new long[capacity];
+	private static final Level[] levels = new Level[capacity];
+	private static final String[] formats = new String[capacity];
+	private static final Object[][] args = new Object[capacity][];
+	private static final AtomicLongArray published = new AtomicLongArray(capacity);
+
+	private static final AtomicLong head = new AtomicLong();
+	private static volatile long tail = 0;
+	private static final AtomicLong dropped = new AtomicLong();
+	private static long droppedReported = 0;
+
+	private static volatile Thread writer;
+
+	static
+	{
+		for (int i=0; i<capacity; i++)
+		{
+			published.set(i, -1);
+		}
+	}
+
+	public static void setLevel(Level lvl)
+	{
+		level = lvl;
+	}
+
+	public static Level getLevel()
+	{
+		return level;
+	}
+
+	public static boolean isEnabled(Level lvl)
+	{
+		return lvl.compareTo(level) >= 0;
+	}
+
+	public static long getDropped()
+	{
+		return dropped.get();
+	}
+
+	public static void debug(String fmt, Object... a)
+	{
+		if (isEnabled(Level.DEBUG))
+		{
+			publish(Level.DEBUG, fmt, a);
+		}
+	}
+
+	public static void info(String fmt, Object... a)
+	{
+		if (isEnabled(Level.INFO))
+		{
+			publish(Level.INFO, fmt, a);
+		}
+	}
+
+	public static void warn(String fmt, Object... a)
+	{
+		if (isEnabled(Level.WARN))
+		{
+			publish(Level.WARN, fmt, a);
+		}
+	}
+
+	public static void error(String fmt, Object... a)
+	{
+		if (isEnabled(Level.ERROR))
+		{
+			publish(Level.ERROR, fmt, a);
+		}
+	}
+
+	/*
+	 * Claim a slot, fill it and mark it published with its sequence number.  Several threads (the main loop, the
+	 * playback Notifier) may log at the same time, so slots are claimed with a compare and set on head.
+	 */
+	private static void publish(Level lvl, String fmt, Object[] a)
+	{
+		long seq;
+		do
+		{
+			seq = head.get();
+			if (seq - tail >= capacity)
+			{
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!head.compareAndSet(seq, seq+1));
+
+		int slot = (int)(seq & (capacity-1));
+		times[slot] = System.currentTimeMillis();
+		levels[slot] = lvl;
+		formats[slot] = fmt;
+		args[slot] = a;
+		published.lazySet(slot, seq);
+
+		startWriter();
+	}
+
+	private static void startWriter()
+	{
+		if (writer == null)
+		{
+			synchronized (Log.class)
+			{
+				if (writer == null)
+				{
+					Thread t = new Thread(Log::drain, "Log");
+					t.setDaemon(true);
+					t.setPriority(Thread.MIN_PRIORITY);
+					t.start();
+					writer = t;
+				}
+			}
+		}
+	}
+
+	private static void drain()
+	{
+		StringBuilder line = new StringBuilder(256);
+
+		while (true)
+		{
+			int slot = (int)(tail & (capacity-1));
+			if (published.get(slot) != tail)
+			{
+				out.flush();
+				LockSupport.parkNanos(idleNanos);
+				continue;
+			}
+
+			line.setLength(0);
+			timeFmt.formatTo(LocalDateTime.ofInstant(Instant.ofEpochMilli(times[slot]), ZoneId.systemDefault()), line);
+			line.append(' ').append(levels[slot]).append(' ');
+			Throwable thrown = format(line, formats[slot], args[slot]);
+
+			args[slot] = null;
+			formats[slot] = null;
+			tail = tail + 1;
+
+			out.println(line);
+			if (thrown != null)
+			{
+				thrown.printStackTrace(out);
+			}
+
+			long d = dropped.get();
+			if (d != droppedReported)
+			{
+				out.println("Log dropped " + (d - droppedReported) + " messages");
+				droppedReported = d;
+			}
+		}
+	}
+
+	/*
+	 * Replace each "{}" with the next argument.  A trailing Throwable is returned so that its stack trace can be
+	 * printed after the message.
+	 */
+	private static Throwable format(StringBuilder line, String fmt, Object[] a)
+	{
+		int count = a.length;
+		int argIdx = 0;
+		int pos = 0;
+		int mark;
+		while ((mark = fmt.indexOf("{}", pos)) >= 0 && argIdx < count)
+		{
+			line.append(fmt, pos, mark).append(a[argIdx++]);
+			pos = mark + 2;
+		}
+		line.append(fmt, pos, fmt.length());
+
+		if ((count > 0) && (a[count-1] instanceof Throwable))
+		{
+			return (Throwable)a[count-1];
+		}
+		return null;
+	}
+}
@@ -0,0 +1,315 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+/**	The {@link LogAnalytics} class summarizes the playback logs written by {@link ActionRecorder} (one per
+ *  autonomous run, "yyyyMMddHHmmss.log", usually gzipped).  Each line of a log is the expected time of an input,
+ *  the timing error and the input itself.  For every run it reports the timing error percentiles, the drift (the
+ *  slope of the error against time) and the worst events; then the same over all runs, and per code version so that
+ *  a change in playback timing can be traced to a deploy.  Files are read and analyzed in parallel:
+ *
+ *  		java org.usfirst.frc.team1626.robot.LogAnalytics [-threads n] [-worst n] [-quiet] log-or-dir...
+ *
+ *  Errors are reported in milliseconds; a positive error is late.  Logs written before the version line was added
+ *  are reported as version "unknown".
+ */
+
+public class LogAnalytics
+{
+	static class Event
+	{
+		final String run;
+		final double time;
+		final double error;
+
+		Event(String run, double time, double error)
+		{
+			this.run = run;
+			this.time = time;
+			this.error = error;
+		}
+	}
+
+	static class Run
+	{
+		final String name;
+		String version = "unknown";
+		String routine = "";
+		double[] errors = new double[1024];
+		int count;
+		double first;
+		// Least squares of error against time since the first event
+		double sx, sy, sxx, sxy;
+		final List<Event> worst = new ArrayList<Event>();
+
+		Run(String name)
+		{
+			this.name = name;
+		}
+
+		void add(double time, double error)
+		{
+			if (count == 0)
+			{
+				first = time;
+			}
+			if (count == errors.length)
+			{
+				errors = Arrays.copyOf(errors, count * 2);
+			}
+			errors[count++] = error;
+			double x = time - first;
+			sx += x;
+			sy += error;
+			sxx += x * x;
+			sxy += x * error;
+		}
+
+		/*
+		 * Error in ms per second of playback.
+		 */
+		double drift()
+		{
+			double d = count * sxx - sx * sx;
+			return (count > 1 && d != 0) ? (count * sxy - sx * sy) / d : 0.0;
+		}
+
+		void finish(int keepWorst, List<Event> events)
+		{
+			events.sort(Comparator.comparingDouble((Event e) -> -Math.abs(e.error)));
+			worst.addAll(events.subList(0, Math.min(keepWorst, events.size())));
+			errors = Arrays.copyOf(errors, count);
+			Arrays.sort(errors);
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException
+	{
+		int threads = Runtime.getRuntime().availableProcessors();
+		int keepWorst = 5;
+		boolean quiet = false;
+		List<File> files = new ArrayList<File>();
+		for (int i=0; i<args.length; i++)
+		{
+			if (args[i].equals("-threads") && i+1 < args.length)
+			{
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-worst") && i+1 < args.length)
+			{
+				keepWorst = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-quiet"))
+			{
+				quiet = true;
+			} else
+			{
+				collect(new File(args[i]), files);
+			}
+		}
+		if (files.isEmpty())
+		{
+			System.err.println("usage: LogAnalytics [-threads n] [-worst n] [-quiet] log-or-dir...");
+			System.exit(1);
+		}
+
+		long t0 = System.nanoTime();
+		int worst = keepWorst;
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		List<Run> runs;
+		try
+		{
+			runs = pool.submit(() -> files.parallelStream().map(f -> read(f, worst)).filter(r -> r.count > 0)
+					.collect(Collectors.toList())).get();
+		} finally
+		{
+			pool.shutdown();
+		}
+		long t1 = System.nanoTime();
+
+		runs.sort(Comparator.comparing((Run r) -> r.name));
+		if (!quiet)
+		{
+			System.out.println("Runs (error ms):");
+			printHeader("run");
+			for (Run run : runs)
+			{
+				printRow(run.name + " " + run.routine, run.errors, run.drift());
+				for (Event e : run.worst)
+				{
+					System.out.printf("    worst: t=%.3f s error %.3f ms%n", e.time, e.error);
+				}
+			}
+			System.out.println();
+		}
+
+		System.out.println("By code version (error ms):");
+		printHeader("version");
+		Map<String, List<Run>> byVersion = new LinkedHashMap<String, List<Run>>();
+		for (Run run : runs)
+		{
+			byVersion.computeIfAbsent(run.version, v -> new ArrayList<Run>()).add(run);
+		}
+		for (Map.Entry<String, List<Run>> version : byVersion.entrySet())
+		{
+			printSummary(version.getKey() + " (" + version.getValue().size() + " runs)", version.getValue());
+		}
+		System.out.println();
+
+		System.out.println("All runs (error ms):");
+		printHeader("");
+		printSummary(runs.size() + " runs", runs);
+		List<Event> allWorst = runs.stream().flatMap(r -> r.worst.stream())
+				.sorted(Comparator.comparingDouble((Event e) -> -Math.abs(e.error)))
+				.limit(keepWorst).collect(Collectors.toList());
+		for (Event e : allWorst)
+		{
+			System.out.printf("    worst: %s t=%.3f s error %.3f ms%n", e.run, e.time, e.error);
+		}
+
+		System.out.printf("%d files analyzed in %.3f s on %d threads%n", files.size(), (t1 - t0) / 1.0e9, threads);
+	}
+
+	private static void collect(File file, List<File> files)
+	{
+		if (file.isDirectory())
+		{
+			File[] ls = file.listFiles();
+			if (ls != null)
+			{
+				Arrays.sort(ls);
+				for (File f : ls)
+				{
+					collect(f, files);
+				}
+			}
+		} else if (file.getName().endsWith(".log") || file.getName().endsWith(".log.gz"))
+		{
+			files.add(file);
+		}
+	}
+
+	/*
+	 * Lines are "expected,error,input".  The expected time is in seconds.  The error is in seconds when it has a
+	 * decimal point, otherwise in microseconds (the format of the older playback loops).  Lines starting with '#'
+	 * carry "key=value" fields separated by ';'.
+	 */
+	private static Run read(File file, int keepWorst)
+	{
+		String name = file.getName();
+		name = name.substring(0, name.indexOf(".log"));
+		Run run = new Run(name);
+		List<Event> events = new ArrayList<Event>();
+		try (InputStream raw = new FileInputStream(file);
+				InputStream in = file.getName().endsWith(".gz") ? new GZIPInputStream(raw, 65536) : raw;
+				BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII), 65536))
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				if (line.startsWith("#"))
+				{
+					for (String field : line.substring(1).split(";"))
+					{
+						int eq = field.indexOf('=');
+						if (eq > 0 && field.startsWith("version"))
+						{
+							run.version = field.substring(eq+1);
+						} else if (eq > 0 && field.startsWith("routine"))
+						{
+							run.routine = field.substring(eq+1);
+						}
+					}
+					continue;
+				}
+				int c1 = line.indexOf(',');
+				int c2 = (c1 < 0) ? -1 : line.indexOf(',', c1+1);
+				if (c2 < 0)
+				{
+					continue;
+				}
+				try
+				{
+					double time = Double.parseDouble(line.substring(0, c1));
+					String err = line.substring(c1+1, c2);
+					double error = (err.indexOf('.') >= 0) ? Double.parseDouble(err) * 1000.0 : Long.parseLong(err) / 1000.0;
+					run.add(time, error);
+					if (keepWorst > 0)
+					{
+						events.add(new Event(name, time, error));
+					}
+				} catch (NumberFormatException e) {
+					// a damaged line
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(file.getPath(), e);
+		}
+		run.finish(keepWorst, events);
+		return run;
+	}
+
+	private static void printHeader(String what)
+	{
+		System.out.printf("%-40s %7s %8s %8s %8s %8s %8s %10s%n", what, "n", "mean", "p50", "p90", "p99", "max",
+				"drift ms/s");
+	}
+
+	private static void printRow(String label, double[] sorted, double drift)
+	{
+		double sum = 0;
+		for (double e : sorted)
+		{
+			sum += e;
+		}
+		int n = sorted.length;
+		System.out.printf("%-40s %7d %8.3f %8.3f %8.3f %8.3f %8.3f %10.4f%n", label, n, (n > 0) ? sum / n : 0.0,
+				percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+				(n > 0) ? sorted[n-1] : 0.0, drift);
+	}
+
+	private static void printSummary(String label, List<Run> runs)
+	{
+		int total = 0;
+		double drift = 0;
+		for (Run r : runs)
+		{
+			total += r.count;
+			drift += r.drift();
+		}
+		double[] all = new double[total];
+		int pos = 0;
+		for (Run r : runs)
+		{
+			System.arraycopy(r.errors, 0, all, pos, r.count);
+			pos += r.count;
+		}
+		Arrays.parallelSort(all);
+		printRow(label, all, runs.isEmpty() ? 0.0 : drift / runs.size());
+	}
+
+	private static double percentile(double[] sorted, double percent)
+	{
+		if (sorted.length == 0)
+		{
+			return 0.0;
+		}
+		int idx = (int)Math.ceil(sorted.length * percent / 100.0) - 1;
+		return sorted[Math.min(Math.max(idx, 0), sorted.length-1)];
+	}
+}
@@ -0,0 +1,148 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.util.concurrent.Semaphore;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.Utility;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**	The {@link LoopScheduler} class decides when the main robot loop runs its next cycle.  It has two modes:
+ *
+ *  		* FIXED_PERIOD - a {@link Notifier} releases the loop every period (for example 10 ms), independent of
+ *  		  when Driver Station packets arrive.  Inputs are read from the latest packet.
+ *  		* DS_PACKET - the loop runs as soon as a new Driver Station packet has arrived, which is what
+ *  		  {@link edu.wpi.first.wpilibj.IterativeRobot} does.  Input is captured the moment it is available.
+ *
+ *  In either mode the scheduler measures the time between cycle starts, and keeps the mean, standard deviation and
+ *  maximum of the period so that the jitter of each mode can be compared on the dashboard (under "Loop/").
+ */
+
+public class LoopScheduler
+{
+	public enum Mode {FIXED_PERIOD, DS_PACKET};
+
+	private static final int reportEvery = 250;
+
+	private final Mode mode;
+	private final double period;
+	private final Semaphore tick = new Semaphore(0);
+	private Notifier notifier;
+
+	private long lastStart;
+	private long cycleStart;
+	private long lastPeriod;
+	private long count;
+	private double sum;
+	private double sumSq;
+	private long max;
+
+	public LoopScheduler(Mode mode, double period)
+	{
+		this.mode = mode;
+		this.period = period;
+	}
+
+	public Mode getMode()
+	{
+		return mode;
+	}
+
+	public double getPeriod()
+	{
+		return period;
+	}
+
+	/**
+	 * Block until the next cycle should start.
+	 */
+	public void waitForNext()
+	{
+		if (mode == Mode.FIXED_PERIOD)
+		{
+			if (notifier == null)
+			{
+				notifier = new Notifier(tick::release);
+				notifier.startPeriodic(period);
+			}
+			tick.acquireUninterruptibly();
+			// A late cycle runs once, not once per missed tick
+			tick.drainPermits();
+		} else
+		{
+			DriverStation.getInstance().waitForData();
+		}
+
+		cycleStart = Utility.getFPGATime();
+		if (lastStart != 0)
+		{
+			long dt = cycleStart - lastStart;
+			lastPeriod = dt;
+			count++;
+			sum += dt;
+			sumSq += ((double)dt) * dt;
+			if (dt > max)
+			{
+				max = dt;
+			}
+			if (count % reportEvery == 0)
+			{
+				report();
+			}
+		}
+		lastStart = cycleStart;
+	}
+
+	/**
+	 * FPGA time at which the current cycle started.
+	 */
+	public long getCycleStart()
+	{
+		return cycleStart;
+	}
+
+	/**
+	 * The period that ended when the current cycle started, in microseconds.
+	 */
+	public long getLastPeriod()
+	{
+		return lastPeriod;
+	}
+
+	public double getMeanPeriod()
+	{
+		return (count > 0) ? sum / count / 1000000.0 : 0.0;
+	}
+
+	public double getJitter()
+	{
+		if (count == 0)
+		{
+			return 0.0;
+		}
+		double mean = sum / count;
+		return Math.sqrt(Math.max(0.0, sumSq / count - mean * mean)) / 1000000.0;
+	}
+
+	public double getMaxPeriod()
+	{
+		return ((double)max) / 1000000.0;
+	}
+
+	public void resetStatistics()
+	{
+		count = 0;
+		sum = 0;
+		sumSq = 0;
+		max = 0;
+		lastStart = 0;
+	}
+
+	private void report()
+	{
+		SmartDashboard.putString("Loop/Mode", mode.toString());
+		SmartDashboard.putNumber("Loop/Period Mean", getMeanPeriod());
+		SmartDashboard.putNumber("Loop/Period Jitter", getJitter());
+		SmartDashboard.putNumber("Loop/Period Max", getMaxPeriod());
+	}
+}
@@ -0,0 +1,211 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**	The {@link MatchLogWriter} class writes log and recording files on a background thread, so that mode transitions
+ *  do not wait on flash I/O.  Each file is written to a temporary file in the same directory and renamed into place
+ *  when it is complete, so a reader never sees a partly written file and a crash leaves no truncated logs behind.
+ *  Files can optionally be gzip compressed, in which case ".gz" is added to the name.
+ *
+ *  After each write the directory is trimmed to the configured retention limits, oldest files first: at most
+ *  maxFiles files and maxBytes bytes in total.  A limit of zero means no limit.  Only the files this writer
+ *  creates, those named with its suffix (such as ".log", or ".log.gz" when compressed), count towards the limits
+ *  or are ever deleted, so other files sharing the directory are left alone.
+ *
+ *  The time from submitting a file to its rename (the flush latency) is logged and put on the dashboard as
+ *  "Log/Flush Latency".  All writers share one low priority thread, so files are written in the order submitted.
+ *  Each write is a {@link FlightEvents} file I/O event, named by the operation given when it was submitted.
+ */
+
+public class MatchLogWriter
+{
+	public interface Content
+	{
+		void writeTo(Writer out) throws IOException;
+	}
+
+	private static final String tmpSuffix = ".tmp";
+
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "MatchLogWriter");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
+
+	private final File dir;
+	private final String suffix;
+	private final int maxFiles;
+	private final long maxBytes;
+	private final boolean compress;
+	private volatile double lastLatency;
+
+	/**
+	 * A writer with retention limits on the files it writes, which are all named with the given suffix.
+	 */
+	public MatchLogWriter(File dir, String suffix, int maxFiles, long maxBytes, boolean compress)
+	{
+		this.dir = dir;
+		this.suffix = compress ? suffix + ".gz" : suffix;
+		this.maxFiles = maxFiles;
+		this.maxBytes = maxBytes;
+		this.compress = compress;
+	}
+
+	/**
+	 * A writer with no retention limits.
+	 */
+	public MatchLogWriter(File dir, boolean compress)
+	{
+		this(dir, "", 0, 0, compress);
+	}
+
+	public File getDirectory()
+	{
+		return dir;
+	}
+
+	/**
+	 * The file a name will end up in, taking compression into account.
+	 */
+	public File target(String name)
+	{
+		return new File(dir, compress ? name + ".gz" : name);
+	}
+
+	public Future<?> submit(String name, Content content)
+	{
+		return submit(name, "write", content);
+	}
+
+	/**
+	 * Write a file, naming the operation in its flight recorder event.
+	 */
+	public Future<?> submit(String name, String operation, Content content)
+	{
+		long submitted = System.nanoTime();
+		File target = target(name);
+		return executor.submit(() -> {
+			Object event = FlightEvents.begin(FlightEvents.FILE_IO);
+			try
+			{
+				write(target, content);
+				FlightEvents.io(event, operation, target.getName(), target.length());
+				trim();
+			} catch (IOException e) {
+				Log.error("{}: {}", target.getAbsolutePath(), e);
+			}
+			lastLatency = ((double)(System.nanoTime() - submitted)) / 1.0e9;
+			SmartDashboard.putNumber("Log/Flush Latency", lastLatency);
+			Log.info("Wrote {} in {} s", target.getName(), lastLatency);
+		});
+	}
+
+	public Future<?> submit(String name, List<String> lines)
+	{
+		return submit(name, "write", lines);
+	}
+
+	public Future<?> submit(String name, String operation, List<String> lines)
+	{
+		return submit(name, operation, out -> {
+			for (String line : lines)
+			{
+				out.write(line);
+				out.write("\n");
+			}
+		});
+	}
+
+	public double getLastLatency()
+	{
+		return lastLatency;
+	}
+
+	private void write(File target, Content content) throws IOException
+	{
+		dir.mkdirs();
+		File tmp = new File(dir, target.getName() + tmpSuffix);
+
+		OutputStream os = new FileOutputStream(tmp);
+		if (compress)
+		{
+			os = new GZIPOutputStream(os, 8192);
+		}
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.US_ASCII)))
+		{
+			content.writeTo(out);
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		}
+
+		try
+		{
+			Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/*
+	 * Delete the oldest of this writer's files until they are within the limits.  Temporary files are left alone.
+	 */
+	private void trim()
+	{
+		if (maxFiles <= 0 && maxBytes <= 0)
+		{
+			return;
+		}
+
+		File[] files = dir.listFiles(f -> f.isFile() && f.getName().endsWith(suffix));
+		if (files == null)
+		{
+			return;
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+		long total = 0;
+		for (File f : files)
+		{
+			total += f.length();
+		}
+
+		int count = files.length;
+		for (File f : files)
+		{
+			boolean overCount = (maxFiles > 0) && (count > maxFiles);
+			boolean overSize = (maxBytes > 0) && (total > maxBytes);
+			if (!overCount && !overSize)
+			{
+				break;
+			}
+			long len = f.length();
+			if (f.delete())
+			{
+				Log.info("Retention removed {}", f.getName());
+				count--;
+				total -= len;
+			}
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package org.usfirst.frc.team1626.robot;
+
+import edu.wpi.first.wpilibj.DoubleSolenoid;
+
+/**	The {@link NullActuators} class ignores every command.  It only remembers whether the compressor was started,
+ *  since {@link RobotBehavior} reads that back to decide what to do next.
+ */
+
+public class NullActuators implements Actuators
+{
+	private boolean compressorOn = true;
+
+	@Override
+	public boolean compressorEnabled()
+	{
+		return compressorOn;
+	}
+
+	@Override
+	public void startCompressor()
+	{
+		compressorOn = true;
+	}
+
+	@Override
+	public void stopCompressor()
+	{
+		compressorOn = false;
+	}
+
+	@Override
+	public void tankDrive(double left, double right)
+	{
+	}
+
+	@Override
+	public void setWinch(double speed)
+	{
+	}
+
+	@Override
+	public void shift(boolean highGear)
+	{
+	}
+
+	@Override
+	public void setShooter(double speed)
+	{
+	}
+
+	@Override
+	public void setAgitator(double speed)
+	{
+	}
+
+	@Override
+	public void setGearHandler(DoubleSolenoid.Value value)
+	{
+	}
+
+	@Override
+	public void setPickup(double speed)
+	{
+	}
+}
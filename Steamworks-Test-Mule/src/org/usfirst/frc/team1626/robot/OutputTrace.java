@@ -0,0 +1,180 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import edu.wpi.first.wpilibj.Utility;
+
+/**	The {@link OutputTrace} class records what the robot behavior method actually commanded, so that a playback run
+ *  can be compared with the teleoperated run it was recorded from.  Each actuator is a channel, named when the trace
+ *  is created.  The behavior method calls {@link #beginCycle}, then {@link #set} for each actuator command, then
+ *  {@link #endCycle}; each cycle becomes one row stamped with the FPGA time at which it began.
+ *
+ *  All storage is preallocated primitive arrays, so recording a cycle is a few array stores and no allocation.  When
+ *  the buffer is full further cycles are counted but not kept.
+ *
+ *  The trace is written after the match in the same shape as a recorded routine: one line per cycle, the time offset
+ *  in microseconds followed by the channel values, separated by ';'.  The offset is taken from the same start time as
+ *  the {@link DriverInput} offsets, so a trace line lines up with the input that produced it.  The first line names
+ *  the channels and starts with '#'.
+ */
+
+public class OutputTrace
+{
+	private final String[] names;
+	private final int channels;
+	private final int capacity;
+	private final long[] times;
+	private final double[] rows;
+	private final double[] current;
+	private int count;
+	private int overflow;
+	private boolean active;
+
+	public OutputTrace(int capacity, String... names)
+	{
+		this.names = names;
+		this.channels = names.length;
+		this.capacity = capacity;
+		times = new long[capacity];
+		rows = new double[capacity * channels];
+		current = new double[channels];
+	}
+
+	public void start()
+	{
+		count = 0;
+		overflow = 0;
+		active = true;
+	}
+
+	public void stop()
+	{
+		active = false;
+	}
+
+	public boolean isActive()
+	{
+		return active;
+	}
+
+	public int size()
+	{
+		return count;
+	}
+
+	public int getOverflow()
+	{
+		return overflow;
+	}
+
+	public int getChannels()
+	{
+		return channels;
+	}
+
+	public void beginCycle()
+	{
+		if (active && count < capacity)
+		{
+			times[count] = Utility.getFPGATime();
+		}
+	}
+
+	/**
+	 * Record a command for a channel in the current cycle.  Values carry over from the previous cycle if a channel
+	 * is not set.
+	 */
+	public void set(int channel, double value)
+	{
+		current[channel] = value;
+	}
+
+	public void endCycle()
+	{
+		if (!active)
+		{
+			return;
+		}
+		if (count < capacity)
+		{
+			System.arraycopy(current, 0, rows, count * channels, channels);
+			count++;
+		} else
+		{
+			overflow++;
+		}
+	}
+
+	public long getTime(int row)
+	{
+		return times[row];
+	}
+
+	public double getValue(int row, int channel)
+	{
+		return rows[row * channels + channel];
+	}
+
+	/**
+	 * A copy of the cycles recorded so far, so that they can be written while this trace records the next run.
+	 */
+	public OutputTrace copy()
+	{
+		OutputTrace copy = new OutputTrace(count, names);
+		System.arraycopy(times, 0, copy.times, 0, count);
+		System.arraycopy(rows, 0, copy.rows, 0, count * channels);
+		copy.count = count;
+		copy.overflow = overflow;
+		return copy;
+	}
+
+	/**
+	 * Write the trace with time offsets relative to start (FPGA microseconds).
+	 */
+	public void write(File file, long start) throws IOException
+	{
+		try (BufferedWriter out = new BufferedWriter(new FileWriter(file)))
+		{
+			write(out, start, 0, count);
+		}
+		if (overflow > 0)
+		{
+			Log.warn("Output trace {} dropped {} cycles", file.getName(), overflow);
+		}
+	}
+
+	/**
+	 * Write the rows from (inclusive) to to (exclusive), so that a long trace can be written a piece at a time.  The
+	 * line naming the channels is written with row 0.
+	 */
+	public void write(Writer out, long start, int from, int to) throws IOException
+	{
+		StringBuilder line = new StringBuilder(16 * (channels + 1));
+		if (from == 0)
+		{
+			line.append("#time");
+			for (String name : names)
+			{
+				line.append(';').append(name);
+			}
+			out.write(line.toString());
+			out.write("\n");
+		}
+
+		for (int r=from; r<to; r++)
+		{
+			line.setLength(0);
+			line.append(times[r] - start);
+			for (int c=0; c<channels; c++)
+			{
+				line.append(';').append(rows[r * channels + c]);
+			}
+			out.write(line.toString());
+			out.write("\n");
+		}
+	}
+}
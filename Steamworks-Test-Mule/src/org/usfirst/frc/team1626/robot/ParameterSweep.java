@@ -0,0 +1,238 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**	The {@link ParameterSweep} class replays recorded routines through {@link RobotBehavior} under every combination
+ *  of a grid of {@link RobotParameters}, against {@link SimulatedActuators}, and prints how each combination did:
+ *  compressor starts and stops, drive shifts, and the peak and mean commanded current.  It runs on a laptop, with the
+ *  combinations spread over all cores by a fork/join pool:
+ *
+ *  		java org.usfirst.frc.team1626.robot.ParameterSweep [-threads n] routine... name=v1,v2,... ...
+ *
+ *  A routine is a recorded file, an auto.pack, or a directory containing either.  Parameters not given keep their
+ *  competition values; the names are those of the {@link RobotParameters} setters without "set", for example
+ *  throttleHighThreshold=0.5,0.6,0.7 throttleLowThreshold=0.3,0.4.  Results are sorted by compressor cycles, then
+ *  by peak current.
+ */
+
+public class ParameterSweep
+{
+	static class Result
+	{
+		final RobotParameters params;
+		int compressorStarts;
+		int compressorStops;
+		int shifts;
+		int cycles;
+		double peakCurrent;
+		double sumCurrent;
+
+		Result(RobotParameters params)
+		{
+			this.params = params;
+		}
+
+		void add(SimulatedActuators sim)
+		{
+			compressorStarts += sim.getCompressorStarts();
+			compressorStops += sim.getCompressorStops();
+			shifts += sim.getShifts();
+			cycles += sim.getCycles();
+			peakCurrent = Math.max(peakCurrent, sim.getPeakCurrent());
+			sumCurrent += sim.getMeanCurrent() * sim.getCycles();
+		}
+
+		double getMeanCurrent()
+		{
+			return (cycles > 0) ? sumCurrent / cycles : 0.0;
+		}
+	}
+
+	private final Map<String, List<DriverInput>> routines = new LinkedHashMap<String, List<DriverInput>>();
+	private final RoutineParser parser = new RoutineParser();
+
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException
+	{
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> paths = new ArrayList<String>();
+		Map<String, double[]> axes = new LinkedHashMap<String, double[]>();
+
+		for (int i=0; i<args.length; i++)
+		{
+			if (args[i].equals("-threads") && i+1 < args.length)
+			{
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].indexOf('=') > 0)
+			{
+				String name = args[i].substring(0, args[i].indexOf('='));
+				String[] values = args[i].substring(name.length()+1).split(",");
+				double[] v = new double[values.length];
+				for (int j=0; j<values.length; j++)
+				{
+					v[j] = Double.parseDouble(values[j]);
+				}
+				apply(new RobotParameters(), name, v[0]);	// reject unknown names before starting
+				axes.put(name, v);
+			} else
+			{
+				paths.add(args[i]);
+			}
+		}
+		if (paths.isEmpty())
+		{
+			System.err.println("Usage: ParameterSweep [-threads n] routine... name=v1,v2,... ...");
+			System.exit(1);
+		}
+
+		RobotBehavior.nameInputs();
+		ParameterSweep sweep = new ParameterSweep();
+		for (String path : paths)
+		{
+			sweep.load(new File(path));
+		}
+		if (sweep.routines.isEmpty())
+		{
+			System.err.println("No routines found");
+			System.exit(1);
+		}
+
+		List<RobotParameters> grid = grid(axes);
+		System.out.printf("%d routines, %d combinations, %d threads%n", sweep.routines.size(), grid.size(), threads);
+
+		long t0 = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		List<Result> results;
+		try
+		{
+			results = pool.submit(() -> grid.parallelStream().map(sweep::evaluate).collect(Collectors.toList())).get();
+		} finally
+		{
+			pool.shutdown();
+		}
+		long t1 = System.nanoTime();
+
+		results.sort(Comparator.comparingInt((Result r) -> r.compressorStarts + r.compressorStops)
+				.thenComparingDouble(r -> r.peakCurrent));
+		System.out.printf("%6s %6s %6s %9s %9s  %s%n", "starts", "stops", "shifts", "peak A", "mean A", "parameters");
+		for (Result r : results)
+		{
+			System.out.printf("%6d %6d %6d %9.1f %9.1f  %s%n", r.compressorStarts, r.compressorStops, r.shifts,
+					r.peakCurrent, r.getMeanCurrent(), r.params);
+		}
+		System.out.printf("Swept in %.3f s%n", (t1 - t0) / 1.0e9);
+	}
+
+	/*
+	 * Load a routine file, every routine in a pack, or everything in a directory.
+	 */
+	private void load(File file) throws IOException
+	{
+		if (file.isDirectory())
+		{
+			File[] files = file.listFiles(File::isFile);
+			if (files != null)
+			{
+				Arrays.sort(files);
+				for (File f : files)
+				{
+					load(f);
+				}
+			}
+		} else if (file.getName().equals(AutoPack.packFileName))
+		{
+			AutoPack pack = AutoPack.open(file);
+			for (AutoPack.Entry entry : pack.entries())
+			{
+				byte[] data = pack.read(entry.getName());
+				add(file.getName() + "/" + entry.getName(), parser.parse(data, data.length));
+			}
+		} else
+		{
+			add(file.getName(), parser.parse(file));
+		}
+	}
+
+	private void add(String name, InputStore store)
+	{
+		if (store.size() > 0)
+		{
+			routines.put(name, store.toDriverInputs());
+		}
+	}
+
+	/*
+	 * Run every routine with one parameter set.  The routines are only read, so they are shared by all threads.
+	 */
+	private Result evaluate(RobotParameters params)
+	{
+		Result result = new Result(params);
+		for (List<DriverInput> routine : routines.values())
+		{
+			SimulatedActuators sim = new SimulatedActuators(params);
+			RobotBehavior behavior = new RobotBehavior(params, sim, RobotBehavior.newTrace(0));
+			behavior.modeInit();
+			for (DriverInput input : routine)
+			{
+				behavior.operate(input);
+				sim.endCycle();
+			}
+			result.add(sim);
+		}
+		return result;
+	}
+
+	/*
+	 * Every combination of the axis values, starting from the competition parameters.
+	 */
+	private static List<RobotParameters> grid(Map<String, double[]> axes)
+	{
+		List<RobotParameters> grid = new ArrayList<RobotParameters>();
+		grid.add(new RobotParameters());
+		for (Map.Entry<String, double[]> axis : axes.entrySet())
+		{
+			List<RobotParameters> next = new ArrayList<RobotParameters>(grid.size() * axis.getValue().length);
+			for (RobotParameters p : grid)
+			{
+				for (double v : axis.getValue())
+				{
+					next.add(apply(new RobotParameters(p), axis.getKey(), v));
+				}
+			}
+			grid = next;
+		}
+		return grid;
+	}
+
+	private static RobotParameters apply(RobotParameters p, String name, double value)
+	{
+		switch (name)
+		{
+		case "pickupSpeed":
+			return p.setPickupSpeed(value);
+		case "shooterSpeed":
+			return p.setShooterSpeed(value);
+		case "agitatorSpeed":
+			return p.setAgitatorSpeed(value);
+		case "winchSpeed":
+			return p.setWinchSpeed(value);
+		case "driveCurrentLimit":
+			return p.setDriveCurrentLimit((int)value);
+		case "throttleHighThreshold":
+			return p.setThrottleHighThreshold(value);
+		case "throttleLowThreshold":
+			return p.setThrottleLowThreshold(value);
+		default:
+			throw new IllegalArgumentException("Unknown parameter " + name);
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**	The {@link Playlist} class plays several recorded routines back to back as one routine, so that an autonomous
+ *  routine can be put together from pieces already recorded.  The routines are named in a comma separated list, for
+ *  example "left-gear.csv, cross-line.csv".  Their time offsets are moved onto one continuous schedule: the first
+ *  input of each routine is due one period after the last input of the routine before it, the period being the
+ *  last interval recorded in that routine (20 ms if it has fewer than two inputs).  The first routine keeps its
+ *  recorded offsets.
+ *
+ *  Routines are decoded on a background thread, one routine ahead of playback: the first when {@link #start} is
+ *  called, and each following one as soon as playback enters the routine before it, so moving on to the next
+ *  routine is only a change of list.  If playback gets to a routine that is not decoded yet, the playback thread
+ *  waits for it; the wait is logged, counted in "Auto/Playlist/Stalls" and added to "Auto/Playlist/Stall Time".  A
+ *  routine that cannot be read is logged and skipped.  The routine playing is shown in "Auto/Playlist/Routine".
+ *
+ *  A playlist is decoded for one run; the inputs are rebased in place, so a new one is made for each run.
+ */
+
+public class Playlist
+{
+	public interface Decoder
+	{
+		List<DriverInput> decode(String routine) throws IOException;
+	}
+
+	private static final long defaultPeriod = 20000;
+
+	private static final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "Playlist Prefetch");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final List<String> routines;
+	private final Decoder decoder;
+	private final AtomicReferenceArray<Future<List<DriverInput>>> segments;
+	private long nextBase;		// only used on the prefetch thread
+	private int stalls;
+	private double stallTime;
+
+	public Playlist(List<String> routines, Decoder decoder)
+	{
+		this.routines = routines;
+		this.decoder = decoder;
+		this.segments = new AtomicReferenceArray<Future<List<DriverInput>>>(routines.size());
+	}
+
+	/**
+	 * The routine names in a playlist; empty names are dropped.
+	 */
+	public static List<String> parse(String spec)
+	{
+		List<String> names = new ArrayList<String>();
+		for (String name : spec.split(","))
+		{
+			name = name.trim();
+			if (!name.isEmpty())
+			{
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	public List<String> getRoutines()
+	{
+		return routines;
+	}
+
+	public int getStalls()
+	{
+		return stalls;
+	}
+
+	/**
+	 * Decode the first routine and return its inputs, or an empty list if it could not be read.
+	 */
+	public List<DriverInput> start()
+	{
+		SmartDashboard.putNumber("Auto/Playlist/Stalls", 0);
+		SmartDashboard.putNumber("Auto/Playlist/Stall Time", 0.0);
+		if (routines.isEmpty())
+		{
+			return Collections.emptyList();
+		}
+		prefetch(0);
+		return await(0, false);
+	}
+
+	/**
+	 * Iterate over the whole playlist, starting at the first input at or after the given offset.
+	 */
+	public Iterator<DriverInput> iterator(long startOffset)
+	{
+		return new Cursor(startOffset);
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.join(",", routines);
+	}
+
+	private void prefetch(int index)
+	{
+		if ((index < routines.size()) && (segments.get(index) == null))
+		{
+			segments.set(index, prefetcher.submit(() -> decode(index)));
+		}
+	}
+
+	/*
+	 * Runs on the prefetch thread.  Segments are submitted in order and decoded one at a time, so nextBase always
+	 * follows the last routine that could be read.
+	 */
+	private List<DriverInput> decode(int index)
+	{
+		String name = routines.get(index);
+		List<DriverInput> inputs;
+		try
+		{
+			inputs = decoder.decode(name);
+		} catch (IOException e) {
+			Log.error("Playlist routine {}: {}", name, e);
+			return Collections.emptyList();
+		}
+		int count = inputs.size();
+		if (count == 0)
+		{
+			Log.warn("Playlist routine {} is empty", name);
+			return inputs;
+		}
+
+		long shift = (index == 0) ? 0 : nextBase - inputs.get(0).getTimeOffset();
+		for (DriverInput input : inputs)
+		{
+			input.setTimeOffset(input.getTimeOffset() + shift);
+		}
+		long last = inputs.get(count-1).getTimeOffset();
+		long period = (count > 1) ? last - inputs.get(count-2).getTimeOffset() : defaultPeriod;
+		nextBase = last + ((period > 0) ? period : defaultPeriod);
+		Log.info("Playlist routine {}: {} inputs from {} to {} us", name, count, inputs.get(0).getTimeOffset(), last);
+		return inputs;
+	}
+
+	private List<DriverInput> await(int index, boolean playing)
+	{
+		Future<List<DriverInput>> segment = segments.get(index);
+		long t0 = System.nanoTime();
+		boolean stalled = playing && !segment.isDone();
+		try
+		{
+			return segment.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Collections.emptyList();
+		} catch (ExecutionException e) {
+			Log.error("Playlist routine {}: {}", routines.get(index), e.getCause());
+			return Collections.emptyList();
+		} finally
+		{
+			if (stalled)
+			{
+				double wait = (System.nanoTime() - t0) / 1.0e9;
+				stalls++;
+				stallTime += wait;
+				SmartDashboard.putNumber("Auto/Playlist/Stalls", stalls);
+				SmartDashboard.putNumber("Auto/Playlist/Stall Time", stallTime);
+				Log.warn("Playlist stalled {} s waiting for {}", wait, routines.get(index));
+			}
+		}
+	}
+
+	private class Cursor implements Iterator<DriverInput>
+	{
+		private int segment = -1;
+		private Iterator<DriverInput> current = Collections.emptyIterator();
+
+		Cursor(long startOffset)
+		{
+			while (segment+1 < routines.size())
+			{
+				List<DriverInput> inputs = enter(segment+1, false);
+				int idx = indexOf(inputs, startOffset);
+				if (idx < inputs.size())
+				{
+					current = inputs.listIterator(idx);
+					break;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			while (!current.hasNext())
+			{
+				if (segment+1 >= routines.size())
+				{
+					return false;
+				}
+				current = enter(segment+1, true).iterator();
+			}
+			return true;
+		}
+
+		@Override
+		public DriverInput next()
+		{
+			if (!hasNext())
+			{
+				throw new NoSuchElementException();
+			}
+			return current.next();
+		}
+
+		private List<DriverInput> enter(int index, boolean playing)
+		{
+			segment = index;
+			prefetch(index);
+			List<DriverInput> inputs = await(index, playing);
+			prefetch(index+1);
+			SmartDashboard.putString("Auto/Playlist/Routine", routines.get(index));
+			return inputs;
+		}
+	}
+
+	/*
+	 * Index of the first input at or after the offset (binary search).
+	 */
+	private static int indexOf(List<DriverInput> inputs, long offset)
+	{
+		int lo = 0;
+		int hi = inputs.size();
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (inputs.get(mid).getTimeOffset() < offset)
+			{
+				lo = mid + 1;
+			} else
+			{
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
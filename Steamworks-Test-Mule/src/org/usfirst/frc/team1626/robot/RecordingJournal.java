@@ -0,0 +1,432 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**	The {@link RecordingJournal} class keeps a recording in a preallocated memory-mapped file while it is being made,
+ *  so that a brownout or a crash in the middle of a practice run loses at most the last second of it.  Each
+ *  {@link DriverInput} is encoded as its routine line straight into the mapping, with no String built on the way,
+ *  and the journal length in the header is moved past it; nothing is kept on the heap.  The line is the routine
+ *  file format, except that axis values are written with at most nine decimals, far finer than a controller
+ *  reports them.  A background thread forces the mapping to flash once a second while the journal is open.
+ *
+ *  When recording stops the journal is sealed: its header is marked as complete and the routine is copied out to
+ *  the auto directory in the background.  A journal found still open when the robot boots was interrupted, and
+ *  {@link #needsRecovery} is true; its complete lines can be copied out the same way.
+ *
+ *  After the text has been copied out, the text area is zeroed with {@link #clear} (on the copying thread), and a
+ *  new recording cannot {@link #begin} until that is done.  So after a power loss in which the header reached flash
+ *  ahead of the text, the missing text reads as zeros, never as lines left over from an earlier, longer recording.
+ *  The header keeps the extent of the text area that may not be zero; a clear sets it to zero once the zeros are
+ *  on flash.  On boot a journal that does not need recovery is cleared in the background only if its extent is
+ *  not zero, so a journal cleared in the previous session costs no I/O.
+ *
+ *  Layout, version 2, big-endian:
+ *
+ *  		offset 0	int		magic 0x524a4e4c ("RJNL")
+ *  		offset 4	int		layout version (2)
+ *  		offset 8	int		state: 0 empty, 1 open, 2 sealed
+ *  		offset 12	int		extent of the text area that may not be zero, bytes
+ *  		offset 16	long	length of the routine text, bytes
+ *  		offset 24	long	time the journal was opened, milliseconds since the epoch
+ *  		offset 32	short	length of the routine file name, then the name, ASCII
+ *  		offset 128	the routine text
+ */
+
+public class RecordingJournal
+{
+	public static final String defaultFileName = "/home/lvuser/recording.journal";
+
+	private static final int MAGIC = 0x524a4e4c;
+	private static final int VERSION = 2;
+	private static final int headerSize = 128;
+	private static final int maxNameLength = headerSize - 34;
+
+	private static final int STATE = 8;
+	private static final int EXTENT = 12;
+	private static final int LENGTH = 16;
+	private static final int OPENED = 24;
+	private static final int NAME = 32;
+
+	private static final int EMPTY = 0;
+	private static final int OPEN = 1;
+	private static final int SEALED = 2;
+
+	private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "RecordingJournal");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
+
+	private final MappedByteBuffer map;
+	private final int capacity;
+	private final boolean interrupted;
+	private String target;
+	private int length;
+	private int dropped;
+	private int extent;
+	private volatile boolean clean;
+	private volatile boolean open;
+	private volatile boolean dirty;
+
+	private RecordingJournal(MappedByteBuffer map, boolean interrupted)
+	{
+		this.map = map;
+		this.capacity = map.capacity() - headerSize;
+		this.interrupted = interrupted;
+		if (interrupted)
+		{
+			// Text may have reached flash past the extent recorded, so all of it is cleared after recovery
+			target = readName();
+			length = recoverableLength();
+			extent = capacity;
+		} else
+		{
+			extent = Math.min(Math.max(map.getInt(EXTENT), 0), capacity);
+		}
+		flusher.scheduleWithFixedDelay(this::flush, 1, 1, TimeUnit.SECONDS);
+		if (!interrupted)
+		{
+			if (extent > 0)
+			{
+				flusher.execute(this::clear);
+			} else
+			{
+				clean = true;
+			}
+		}
+	}
+
+	/**
+	 * Open the journal file, creating it with room for capacity bytes of routine text if it is missing or of a
+	 * different size.  An existing journal is kept so that it can be recovered.
+	 */
+	public static RecordingJournal open(File file, int capacity) throws IOException
+	{
+		long size = headerSize + capacity;
+		boolean found = file.isFile();
+		boolean existing = found && (file.length() == size);
+		MappedByteBuffer map;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			raf.setLength(size);
+			map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+
+		boolean interrupted = existing && (map.getInt(0) == MAGIC) && (map.getInt(4) == VERSION) &&
+				(map.getInt(STATE) == OPEN);
+		if (!existing || (map.getInt(0) != MAGIC) || (map.getInt(4) != VERSION))
+		{
+			map.putInt(0, MAGIC);
+			map.putInt(4, VERSION);
+			map.putInt(STATE, EMPTY);
+			map.putInt(EXTENT, found ? capacity : 0);	// what an old file left in the text area is unknown
+			map.putLong(LENGTH, 0);
+			map.force();
+		}
+		return new RecordingJournal(map, interrupted);
+	}
+
+	/**
+	 * True if the journal was left open by a run that did not stop normally.
+	 */
+	public boolean needsRecovery()
+	{
+		return interrupted && (map.getInt(STATE) == OPEN);
+	}
+
+	/**
+	 * Start a new recording that will be copied to the named routine file.  Returns false, and the journal stays
+	 * closed, if the text of the previous recording has not been copied out and cleared yet.
+	 */
+	public boolean begin(String name)
+	{
+		if (!clean)
+		{
+			return false;
+		}
+		clean = false;
+		extent = 0;
+		byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+		int n = Math.min(bytes.length, maxNameLength);
+		map.putShort(NAME, (short)n);
+		for (int i=0; i<n; i++)
+		{
+			map.put(NAME + 2 + i, bytes[i]);
+		}
+		target = new String(bytes, 0, n, StandardCharsets.US_ASCII);
+		length = 0;
+		dropped = 0;
+		map.putLong(LENGTH, 0);
+		map.putLong(OPENED, System.currentTimeMillis());
+		map.putInt(STATE, OPEN);
+		open = true;
+		dirty = true;
+		return true;
+	}
+
+	/**
+	 * True if a new recording can begin.
+	 */
+	public boolean isClean()
+	{
+		return clean;
+	}
+
+	/**
+	 * Zero the text area used since the last clear and force it to flash, then record in the header that it is
+	 * clear.  This is called once the text has been copied out, on the copying thread.
+	 */
+	public void clear()
+	{
+		if (open)
+		{
+			return;
+		}
+		int end = headerSize + Math.max(extent, length);
+		if (end > headerSize)
+		{
+			byte[] zeros = new byte[8192];
+			ByteBuffer text = map.duplicate();
+			for (int pos=headerSize; pos<end; pos+=zeros.length)
+			{
+				text.position(pos);
+				text.put(zeros, 0, Math.min(zeros.length, end - pos));
+			}
+			// The zeros must be on flash before the header says so; the header goes with the next flush
+			map.force();
+		}
+		extent = 0;
+		map.putInt(EXTENT, 0);
+		map.putInt(STATE, EMPTY);
+		dirty = true;
+		clean = true;
+	}
+
+	public boolean isOpen()
+	{
+		return open;
+	}
+
+	/**
+	 * Append the line of one input.  The length is only moved once the whole line is in place, so a recovered
+	 * journal always ends on a complete line.  Lines that do not fit are counted and dropped.
+	 */
+	public boolean append(DriverInput input)
+	{
+		if (!open)
+		{
+			return false;
+		}
+		int pos = putLong(headerSize + length, input.getTimeOffset());
+		for (int i=0, n=DriverInput.inputCount(); i<n; i++)
+		{
+			pos = put(pos, (byte)';');
+			pos = putValue(pos, input.getInput(i));
+		}
+		pos = put(pos, (byte)'\n');
+		if (pos < 0)
+		{
+			// Part of the line was written up to the end of the text area
+			extent = capacity;
+			map.putInt(EXTENT, capacity);
+			if (dropped++ == 0)
+			{
+				Log.warn("Recording journal full at {} bytes", length);
+			}
+			return false;
+		}
+		length = pos - headerSize;
+		extent = length;
+		map.putInt(EXTENT, length);
+		map.putLong(LENGTH, length);
+		dirty = true;
+		return true;
+	}
+
+	/**
+	 * Mark the recording complete.  The mapping is forced in the background.
+	 */
+	public void seal()
+	{
+		open = false;
+		map.putLong(LENGTH, length);
+		map.putInt(STATE, SEALED);
+		dirty = true;
+		flusher.execute(this::flush);
+		if (dropped > 0)
+		{
+			Log.warn("Recording journal dropped {} inputs", dropped);
+		}
+	}
+
+	public String getTarget()
+	{
+		return target;
+	}
+
+	public int getLength()
+	{
+		return length;
+	}
+
+	public int getDropped()
+	{
+		return dropped;
+	}
+
+	/**
+	 * Copy the routine text out, for example as the content of a {@link MatchLogWriter} file.
+	 */
+	public void writeTo(Writer out) throws IOException
+	{
+		char[] chunk = new char[8192];
+		int end = headerSize + length;
+		for (int pos=headerSize; pos<end; )
+		{
+			int n = Math.min(chunk.length, end - pos);
+			for (int i=0; i<n; i++)
+			{
+				chunk[i] = (char)(map.get(pos + i) & 0xff);
+			}
+			out.write(chunk, 0, n);
+			pos += n;
+		}
+	}
+
+	/*
+	 * The put methods write at pos and return the position after what they wrote, or -1 once the text area is
+	 * full; a position of -1 is passed along, so a line only needs checking at its end.
+	 */
+	private int put(int pos, byte b)
+	{
+		if ((pos < 0) || (pos >= headerSize + capacity))
+		{
+			return -1;
+		}
+		map.put(pos, b);
+		return pos + 1;
+	}
+
+	private int putAscii(int pos, String text)
+	{
+		for (int i=0; i<text.length(); i++)
+		{
+			pos = put(pos, (byte)text.charAt(i));
+		}
+		return pos;
+	}
+
+	private int putLong(int pos, long value)
+	{
+		if (value < 0)
+		{
+			if (value == Long.MIN_VALUE)
+			{
+				return putAscii(pos, Long.toString(value));
+			}
+			pos = put(pos, (byte)'-');
+			value = -value;
+		}
+		long scale = 1;
+		while (scale <= value / 10)
+		{
+			scale *= 10;
+		}
+		for (; scale > 0; scale /= 10)
+		{
+			pos = put(pos, (byte)('0' + (value / scale) % 10));
+		}
+		return pos;
+	}
+
+	/*
+	 * Booleans and null as in the routine file; axis values rounded to nine decimals, trailing zeros dropped but
+	 * one decimal kept, as in "0.5" or "-1.0".  Anything else (never recorded by Robot) goes through toString.
+	 */
+	private int putValue(int pos, Object value)
+	{
+		if (value == null)
+		{
+			return putAscii(pos, "null");
+		}
+		if (value instanceof Boolean)
+		{
+			return putAscii(pos, ((Boolean)value) ? "true" : "false");
+		}
+		if (!(value instanceof Double) || !(Math.abs((Double)value) < 1.0e9))
+		{
+			return putAscii(pos, value.toString());
+		}
+		double v = (Double)value;
+		long scaled = Math.round(Math.abs(v) * 1.0e9);
+		if ((v < 0) && (scaled != 0))
+		{
+			pos = put(pos, (byte)'-');
+		}
+		pos = putLong(pos, scaled / 1000000000L);
+		pos = put(pos, (byte)'.');
+		long fraction = scaled % 1000000000L;
+		long scale = 100000000L;
+		do
+		{
+			pos = put(pos, (byte)('0' + (fraction / scale) % 10));
+			fraction %= scale;
+			scale /= 10;
+		} while ((fraction != 0) && (scale > 0));
+		return pos;
+	}
+
+	private void flush()
+	{
+		if (dirty)
+		{
+			dirty = false;
+			map.force();
+		}
+	}
+
+	private String readName()
+	{
+		int n = Math.min(Math.max(map.getShort(NAME), 0), maxNameLength);
+		byte[] bytes = new byte[n];
+		for (int i=0; i<n; i++)
+		{
+			bytes[i] = map.get(NAME + 2 + i);
+		}
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+
+	/*
+	 * After a power loss the header may have reached flash ahead of the text it describes, so the recovered text
+	 * stops before the first line that is not complete.
+	 */
+	private int recoverableLength()
+	{
+		long recorded = Math.min(Math.max(map.getLong(LENGTH), 0), capacity);
+		int lineStart = 0;
+		for (int i=0; i<recorded; i++)
+		{
+			byte b = map.get(headerSize + i);
+			if (b == 0)
+			{
+				break;
+			}
+			if (b == '\n')
+			{
+				lineStart = i + 1;
+			}
+		}
+		return lineStart;
+	}
+}
@@ -1,6 +1,16 @@
 package org.usfirst.frc.team1626.robot;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import org.opencv.core.Mat;
 
@@ -13,8 +23,6 @@ import edu.wpi.first.wpilibj.AnalogInput;
 import edu.wpi.first.wpilibj.CameraServer;
 import edu.wpi.first.wpilibj.Compressor;
 import edu.wpi.first.wpilibj.DoubleSolenoid;
-import edu.wpi.first.wpilibj.GenericHID.Hand;
-import edu.wpi.first.wpilibj.IterativeRobot;
 import edu.wpi.first.wpilibj.Joystick;
 import edu.wpi.first.wpilibj.PowerDistributionPanel;
 import edu.wpi.first.wpilibj.RobotDrive;
@@ -32,20 +40,44 @@ import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
  * 
  */
 
-public class Robot extends IterativeRobot {
+public class Robot extends ScheduledRobot {
 	
-	enum Gear {HIGH_GEAR, LOW_GEAR};
-
-	private final double pickupSpeed = .90;
-	private final double shooterSpeed = 1.0;
-	private final double agitatorSpeed = 1.0;
-	private final double winchSpeed = 1.0;
-	private final int driveCurrentLimit = 60;
-	private final double throttleHighThreshold = .60;
-	private final double throttleLowThreshold = .40;
+	private final RobotParameters params = new RobotParameters();
 	
 	private final boolean invertedDrive = false;
 
+	private static final LoopScheduler.Mode loopMode = LoopScheduler.Mode.FIXED_PERIOD;
+	private static final double loopPeriod = 0.020;
+
+	// Thread scheduling: control and playback share core 1 at real-time priority, the camera gets core 0
+	private static final String cameraThreadPrefix = "CameraServer";
+
+	// Subsystems run concurrently on a few workers, each cycle waits at most half a loop period for them
+	private static final boolean concurrentBehaviors = true;
+	private static final int behaviorWorkers = 3;
+	private static final double behaviorTimeout = loopPeriod / 2;
+
+	// Late playback drops stale stick values instead of replaying them in a burst, but keeps every button press
+	private static final CatchUp.Policy catchUpPolicy = CatchUp.Policy.SKIP;
+
+	// The operator triggers are recorded as buttons, as getTrigger reported them, pressed past half travel
+	private static final double triggerPressed = 0.5;
+
+	// Deferred work runs only while disabled, with a quarter of each loop period of CPU time
+	private static final double backgroundBudget = loopPeriod / 4;
+	private static final int traceRowsPerStep = 500;
+
+	// Telemetry counters and sample channels
+	private static final int TLM_PERIOD_MEAN = 0;
+	private static final int TLM_PERIOD_JITTER = 1;
+	private static final int TLM_PERIOD_MAX = 2;
+	private static final int TLM_PRESSURE = 3;
+	private static final int TLM_PDP_VOLTAGE = 4;
+	private static final int TLM_LOG_DROPPED = 5;
+	private static final int TLM_DRIVE_CURRENT = 6;		// first of four, in the order of driveCurrentNames
+	private static final int TLM_SAMPLE_PERIOD = 0;
+	private static final int TLM_SAMPLE_TIME_ERROR = 1;
+
 	private PowerDistributionPanel pdp;
 
 	private CANTalon upperLeft;
@@ -59,6 +91,10 @@ public class Robot extends IterativeRobot {
 	private Joystick driverLeft;
 	private Joystick driverRight;
 
+	private HIDSnapshot xboxHid;
+	private HIDSnapshot driverLeftHid;
+	private HIDSnapshot driverRightHid;
+
 	private Talon pickUpOneTalon;
 
 	private CANTalon shooterOneTopMotor;
@@ -74,10 +110,28 @@ public class Robot extends IterativeRobot {
 	private DoubleSolenoid gearHandler;
 	private DoubleSolenoid driveTrainShifter;
 
-	Toggle  highGear;
+
+	// JIT warm-up while disabled: passes over the synthetic inputs, played for up to warmupBudget of each disabledPeriodic
+	private static final int warmupPasses = 60;
+	private static final double warmupBudget = loopPeriod / 4;
+	private static final int warmupInputs = 200;
+	private List<DriverInput> warmupSet;
+	private int warmupPassesDone;
 	private AnalogInput pressureSensor;
 	private Compressor compressor;
 
+	private SensorService sensors;
+	private int pressureChannel;
+	private int pdpVoltageChannel;
+
+	// Drive Talon output currents, on the dashboard and in telemetry (no channels without Talon SRXs)
+	private static final String[] driveCurrentNames = {"Upper-Left", "Upper-Right", "Lower-Left", "Lower-Right"};
+	private static final String[] driveCurrentKeys = {"Drive/Upper-Left Current", "Drive/Upper-Right Current",
+			"Drive/Lower-Left Current", "Drive/Lower-Right Current"};
+	private int[] driveCurrentChannels = new int[0];
+
+	private Telemetry telemetry;
+
 	boolean robotHasTalonSRX = true;
 
 
@@ -92,96 +146,150 @@ public class Robot extends IterativeRobot {
 
 	private boolean autoStarted;
 
+	private OutputTrace outputTrace = RobotBehavior.newTrace(10000);
+	private final Actuators deviceActuators = new DeviceActuators();
+	private volatile RobotBehavior behavior = new RobotBehavior(params, deviceActuators, outputTrace);
+	private final TimelinePlayer timelinePlayer = new TimelinePlayer(this, deviceActuators, outputTrace);
+	private ActuatorTimeline autoTimeline;
+	private final LatencyTracer latencyTracer = new LatencyTracer(4);
+	private boolean traceAuto;
+	private final BackgroundWork background = new BackgroundWork(backgroundBudget);
+	private DateTimeFormatter traceFmt = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+	// Mode transitions are budgeted one loop period each
+	private final TransitionTimer autonomousInitTimer = new TransitionTimer("Autonomous Init", loopPeriod);
+	private final TransitionTimer teleopInitTimer = new TransitionTimer("Teleop Init", loopPeriod);
+	private final TransitionTimer disabledInitTimer = new TransitionTimer("Disabled Init", loopPeriod);
+
+	public Robot() {
+		setLoopScheduler(new LoopScheduler(loopMode, loopPeriod));
+	}
+
 	@Override
 	public void robotInit() {
-		pdp               		 = new PowerDistributionPanel(0);
-
-		try {
-			lowerRight = new CANTalon(1);
-			long version = lowerRight.GetFirmwareVersion();
-			System.out.println("lowerRight firmware version is: " + version);
-
-			if (version > 0) {
-				robotHasTalonSRX = true;
-			}
-		} catch (Exception e) {
-
-		}
-
-		if (robotHasTalonSRX) {
-			upperLeft          = new CANTalon(3);
-			upperRight         = new CANTalon(10);
-			lowerLeft           = new CANTalon(11);
-			lowerRight          = new CANTalon(1);
-			
-			upperLeft.setCurrentLimit(driveCurrentLimit);
-			upperRight.setCurrentLimit(driveCurrentLimit);
-			lowerLeft.setCurrentLimit(driveCurrentLimit);
-			lowerRight.setCurrentLimit(driveCurrentLimit);
-
-			System.out.println("Running with CANTalons");
-
-			shooterOneTopMotor = new CANTalon(4);
-			shooterOneBottomMotor = new CANTalon(6);
-			shooterTwoTopMotor = new CANTalon(2);
-			shooterTwoBottomMotor = new CANTalon(5);
-
-			drive              = new RobotDrive(upperLeft, lowerLeft, upperRight, lowerRight);
-
-			winchTalon         = new Talon(0);
-			pickUpOneTalon     = new Talon(1);
-
-			agitatorLeft = new Talon(2);
-			agitatorRight = new Talon(3);
-
-			upperLeft.setInverted(invertedDrive);
-			lowerLeft.setInverted(invertedDrive);
-			upperRight.setInverted(invertedDrive);
-			lowerRight.setInverted(invertedDrive);
-
-		} else {
-			System.out.println("Running with old Talons");
-			Talon leftFront		= new Talon(0);
-			Talon rightFront	= new Talon(1);
-			Talon leftRear		= new Talon(2);
-			Talon rightRear		= new Talon(3);
-			// Reverses Joysticks front to back
-			leftFront.setInverted(true);
-			rightFront.setInverted(true);
-			leftRear.setInverted(true);
-			rightRear.setInverted(true);
-			drive				= new RobotDrive(leftFront, leftRear, rightFront, rightRear);
-
-			winchTalon         = new Talon(4);
-			pickUpOneTalon     = new Talon(5);
-
-			agitatorLeft = new Talon(6);
-			agitatorRight = new Talon(7);
-			shooterOneTopMotor = new CANTalon(8);
-			shooterOneBottomMotor = shooterOneTopMotor;
-			shooterTwoTopMotor = shooterOneTopMotor;
-			shooterTwoBottomMotor = shooterOneTopMotor;
-
-		}
-
-
-		
-		driverLeft 		   = new Joystick(0);
-		driverRight 	   = new Joystick(1);
+		ThreadConfig.configure("Main", ThreadConfig.Policy.FIFO, 15, 1);
+		ThreadConfig.configure("Playback", ThreadConfig.Policy.FIFO, 20, 1);
+		ThreadConfig.configure("Playback Thread", ThreadConfig.Policy.FIFO, 20, 1);
+		ThreadConfig.configure("Behavior", ThreadConfig.Policy.FIFO, 18, -1);
+		ThreadConfig.configure("Camera", ThreadConfig.Policy.OTHER, 0, 0);
+		ThreadConfig.configure("Background", ThreadConfig.Policy.OTHER, 0, 0);
+		ThreadConfig.attach("Main");
+
+		new InitStage()
+			.step("PDP", () -> {
+				pdp               		 = new PowerDistributionPanel(0);
+			})
+			.step("Motors", () -> {
+				if (robotHasTalonSRX) {
+					upperLeft          = new CANTalon(3);
+					upperRight         = new CANTalon(10);
+					lowerLeft           = new CANTalon(11);
+					lowerRight          = new CANTalon(1);
+				
+					upperLeft.setCurrentLimit(params.getDriveCurrentLimit());
+					upperRight.setCurrentLimit(params.getDriveCurrentLimit());
+					lowerLeft.setCurrentLimit(params.getDriveCurrentLimit());
+					lowerRight.setCurrentLimit(params.getDriveCurrentLimit());
+
+					Log.info("Running with CANTalons");
+
+					shooterOneTopMotor = new CANTalon(4);
+					shooterOneBottomMotor = new CANTalon(6);
+					shooterTwoTopMotor = new CANTalon(2);
+					shooterTwoBottomMotor = new CANTalon(5);
+
+					drive              = new RobotDrive(upperLeft, lowerLeft, upperRight, lowerRight);
+
+					winchTalon         = new Talon(0);
+					pickUpOneTalon     = new Talon(1);
+
+					agitatorLeft = new Talon(2);
+					agitatorRight = new Talon(3);
+
+					upperLeft.setInverted(invertedDrive);
+					lowerLeft.setInverted(invertedDrive);
+					upperRight.setInverted(invertedDrive);
+					lowerRight.setInverted(invertedDrive);
+
+				} else {
+					Log.info("Running with old Talons");
+					Talon leftFront		= new Talon(0);
+					Talon rightFront	= new Talon(1);
+					Talon leftRear		= new Talon(2);
+					Talon rightRear		= new Talon(3);
+					// Reverses Joysticks front to back
+					leftFront.setInverted(true);
+					rightFront.setInverted(true);
+					leftRear.setInverted(true);
+					rightRear.setInverted(true);
+					drive				= new RobotDrive(leftFront, leftRear, rightFront, rightRear);
+
+					winchTalon         = new Talon(4);
+					pickUpOneTalon     = new Talon(5);
+
+					agitatorLeft = new Talon(6);
+					agitatorRight = new Talon(7);
+					shooterOneTopMotor = new CANTalon(8);
+					shooterOneBottomMotor = shooterOneTopMotor;
+					shooterTwoTopMotor = shooterOneTopMotor;
+					shooterTwoBottomMotor = shooterOneTopMotor;
 
-		xbox               = new XboxController(2);
-
-		highGear 			= new Toggle();
-		pressureSensor = new AnalogInput(0);
-
-		shooterOneTopMotor.setInverted(true);
-
-		compressor = new Compressor();
-		gearHandler			     = new DoubleSolenoid(6, 7);
-		driveTrainShifter        = new DoubleSolenoid(4, 5);
+				}
 
-		UsbCamera camera = CameraServer.getInstance().startAutomaticCapture();
-//		camera.setResolution(640, 480);
+				shooterOneTopMotor.setInverted(true);
+			})
+			.step("Pneumatics", () -> {
+				pressureSensor = new AnalogInput(0);
+				compressor = new Compressor();
+				gearHandler			     = new DoubleSolenoid(6, 7);
+				driveTrainShifter        = new DoubleSolenoid(4, 5);
+			})
+			.step("Controls", () -> {
+				driverLeft 		   = new Joystick(0);
+				driverRight 	   = new Joystick(1);
+
+				xbox               = new XboxController(2);
+
+				driverLeftHid      = HIDSnapshot.get(driverLeft);
+				driverRightHid     = HIDSnapshot.get(driverRight);
+				xboxHid            = HIDSnapshot.get(xbox);
+			})
+			.step("Sensors", () -> {
+				sensors = new SensorService();
+				pressureChannel = sensors.addAnalog("Pressure", pressureSensor, 0.050, 4);
+				pdpVoltageChannel = sensors.addPDPVoltage(pdp, 0.100);
+				if (robotHasTalonSRX) {
+					CANTalon[] drive = {upperLeft, upperRight, lowerLeft, lowerRight};
+					int[] channels = new int[drive.length];
+					for (int i=0; i<drive.length; i++) {
+						channels[i] = sensors.addTalonCurrent(driveCurrentNames[i], drive[i], 0.100);
+					}
+					driveCurrentChannels = channels;
+				}
+				sensors.start();
+			}, "PDP", "Motors", "Pneumatics")
+			.step("Telemetry", () -> {
+				try {
+					telemetry = Telemetry.create(new File(Telemetry.defaultFileName), 4096,
+							"Loop/Period Mean", "Loop/Period Jitter", "Loop/Period Max", "Pressure", "PDP Voltage",
+							"Log/Dropped", driveCurrentKeys[0], driveCurrentKeys[1], driveCurrentKeys[2],
+							driveCurrentKeys[3]);
+				} catch (IOException e) {
+					Log.error("Telemetry", e);
+				}
+			})
+			.background("Firmware", () -> {
+				if (robotHasTalonSRX) {
+					long version = lowerRight.GetFirmwareVersion();
+					Log.info("lowerRight firmware version is: {}", version);
+				}
+			}, "Motors")
+			.background("Camera", () -> {
+				UsbCamera camera = CameraServer.getInstance().startAutomaticCapture();
+//				camera.setResolution(640, 480);
+				ThreadConfig.attachNative("Camera", cameraThreadPrefix);
+			})
+			.run(3);
 
 //		visionThread = new Thread(() -> {
 //			UsbCamera camera = CameraServer.getInstance().startAutomaticCapture();
@@ -211,22 +319,18 @@ public class Robot extends IterativeRobot {
 		setUpButton(xbox, 1).
 		setDownButton(xbox, 2).
 		setRecordButton(xbox, 3);
-		DriverInput.nameInput("Driver-Left");
-		DriverInput.nameInput("Driver-Right");
-		DriverInput.nameInput("Driver-Left-Trigger");
-		DriverInput.nameInput("Driver-Right-Trigger");
-		DriverInput.nameInput("Operator-Left-Stick");
-		DriverInput.nameInput("Operator-Left-Bumper");
-		DriverInput.nameInput("Operator-Left-Trigger");
-		DriverInput.nameInput("Operator-Right-Stick");
-		DriverInput.nameInput("Operator-Right-Bumper");
-		DriverInput.nameInput("Operator-Right-Trigger");
-		DriverInput.nameInput("Operator-X-Button");
-		DriverInput.nameInput("Operator-Y-Button");
-		DriverInput.nameInput("Operator-A-Button");
-		DriverInput.nameInput("Operator-B-Button");
-		DriverInput.nameInput("Operator-Start-Button");
-		DriverInput.nameInput("Operator-Back-Button");
+		if (telemetry != null) {
+			actions.setTelemetry(telemetry, TLM_SAMPLE_TIME_ERROR);
+		}
+		actions.setLatencyTracer(latencyTracer);
+		actions.setCatchUp(catchUpPolicy);
+		actions.setBackgroundWork(background);
+		background.start();
+		if (concurrentBehaviors) {
+			actions.setBehaviors(makeDispatcher());
+		}
+		timelinePlayer.setCompensation(actions.getCompensation());
+		RobotBehavior.nameInputs();
 
 		//        new Thread(() -> {
 		//            UsbCamera camera = CameraServer.getInstance().startAutomaticCapture();
@@ -247,17 +351,83 @@ public class Robot extends IterativeRobot {
 
 	}
 
-	private void shiftTo(Gear speed) {
-		if (speed == Gear.HIGH_GEAR) {
-			driveTrainShifter.set(DoubleSolenoid.Value.kReverse);
-			enableCurrentLimit(true);
-			SmartDashboard.putBoolean("DB/LED 3", true);
+	/*
+	 * The subsystems of the behavior, spread round-robin over the workers: drive, shooter and compressor each lead
+	 * a worker.  The behavior is looked up every cycle, so the warm-up can swap it.
+	 */
+	private BehaviorDispatcher makeDispatcher() {
+		BehaviorDispatcher dispatcher = new BehaviorDispatcher(behaviorWorkers, behaviorTimeout)
+				.add("Drive", in -> behavior.operateDrive(in))
+				.add("Shooter", in -> behavior.operateShooter(in))
+				.add("Compressor", in -> behavior.operateCompressor(in))
+				.add("Shifter", in -> behavior.operateShifter(in))
+				.add("Winch", in -> behavior.operateWinch(in))
+				.add("Gear Handler", in -> behavior.operateGearHandler(in))
+				.add("Pickup", in -> behavior.operatePickup(in))
+				.around(in -> behavior.beginCycle(in), in -> behavior.endCycle(in));
+		dispatcher.start();
+		return dispatcher;
+	}
+
+	/*
+	 * The real devices, as commanded by robotOperation.
+	 */
+	private class DeviceActuators implements Actuators {
+		@Override
+		public boolean compressorEnabled() {
+			return compressor.enabled();
+		}
+
+		@Override
+		public void startCompressor() {
+			compressor.start();
 		}
-		
-		if (speed == Gear.LOW_GEAR) {
-			driveTrainShifter.set(DoubleSolenoid.Value.kForward);
-			enableCurrentLimit(false);
-			SmartDashboard.putBoolean("DB/LED 3", false);
+
+		@Override
+		public void stopCompressor() {
+			compressor.stop();
+		}
+
+		@Override
+		public void tankDrive(double left, double right) {
+			drive.tankDrive(left, right);
+			latencyTracer.mark(LatencyTracer.ACTUATOR);
+		}
+
+		@Override
+		public void setWinch(double speed) {
+			winchTalon.set(speed);
+		}
+
+		@Override
+		public void shift(boolean high) {
+			driveTrainShifter.set(high ? DoubleSolenoid.Value.kReverse : DoubleSolenoid.Value.kForward);
+			enableCurrentLimit(high);
+			SmartDashboard.putBoolean("DB/LED 3", high);
+		}
+
+		@Override
+		public void setShooter(double speed) {
+			shooterOneTopMotor.set(speed);
+			shooterTwoTopMotor.set(speed);
+			shooterOneBottomMotor.set(speed);
+			shooterTwoBottomMotor.set(speed);
+		}
+
+		@Override
+		public void setAgitator(double speed) {
+			agitatorLeft.set(speed);
+			agitatorRight.set(speed);
+		}
+
+		@Override
+		public void setGearHandler(DoubleSolenoid.Value value) {
+			gearHandler.set(value);
+		}
+
+		@Override
+		public void setPickup(double speed) {
+			pickUpOneTalon.set(speed);
 		}
 	}
 
@@ -265,9 +435,28 @@ public class Robot extends IterativeRobot {
 	public void robotPeriodic() {		
 		// given vout, pressure = 250(vout/vcc) - 25
 		// vcc is assumed to be 5.0
-		double pressure = (250.0 * (pressureSensor.getVoltage() / 5.0)) - 25;
+		double pressure = (250.0 * (sensors.getValue(pressureChannel, 0.0) / 5.0)) - 25;
 		SmartDashboard.putString("DB/String 4", String.format("%.1f", pressure));
-//		SmartDashboard.putNumber("PDP Voltage", pdp.getVoltage());
+		SmartDashboard.putNumber("PDP Voltage", sensors.getValue(pdpVoltageChannel, 0.0));
+		for (int i=0; i<driveCurrentChannels.length; i++) {
+			SmartDashboard.putNumber(driveCurrentKeys[i], sensors.getValue(driveCurrentChannels[i], 0.0));
+		}
+
+		if (telemetry != null) {
+			LoopScheduler loop = getLoopScheduler();
+			telemetry.beginUpdate();
+			telemetry.setCounter(TLM_PERIOD_MEAN, loop.getMeanPeriod());
+			telemetry.setCounter(TLM_PERIOD_JITTER, loop.getJitter());
+			telemetry.setCounter(TLM_PERIOD_MAX, loop.getMaxPeriod());
+			telemetry.setCounter(TLM_PRESSURE, pressure);
+			telemetry.setCounter(TLM_PDP_VOLTAGE, sensors.getValue(pdpVoltageChannel, 0.0));
+			telemetry.setCounter(TLM_LOG_DROPPED, Log.getDropped());
+			for (int i=0; i<driveCurrentChannels.length; i++) {
+				telemetry.setCounter(TLM_DRIVE_CURRENT + i, sensors.getValue(driveCurrentChannels[i], 0.0));
+			}
+			telemetry.sample(TLM_SAMPLE_PERIOD, loop.getLastPeriod());
+			telemetry.endUpdate();
+		}
 //
 //		// RoboRIO Brownout triggers @ 6.8V		
 //		if (Timer.getMatchTime() >= 15.0) {
@@ -286,39 +475,200 @@ public class Robot extends IterativeRobot {
 
 	@Override
 	public void autonomousInit() {
+		autonomousInitTimer.start();
+		background.suspend();
+		ThreadConfig.report();
 		autoLoopCounter = 0;
 		actions.autonomousInit();
+		autonomousInitTimer.lap("Recorder");
+		autoTimeline = SmartDashboard.getBoolean("Auto/Compiled", false) ? readTimeline() : null;
+		autonomousInitTimer.lap("Timeline");
 		autoStarted=false;	
-		// Robot initially in low gear, this sets it into high gear
-		shiftTo(Gear.HIGH_GEAR);
-		gearHandler.set(DoubleSolenoid.Value.kReverse);
+		traceAuto=true;
+		outputTrace.start();
+		behavior.modeInit();
+		autonomousInitTimer.lap("Mode Init");
+		autonomousInitTimer.end();
+	}
+
+	/*
+	 * The compiled timeline of the selected routine, or null to play the recording itself.
+	 */
+	private ActuatorTimeline readTimeline() {
+		File routine = actions.getSelectedFile();
+		if (routine == null) {
+			return null;
+		}
+		if (actions.getPlaylist() != null) {
+			Log.info("Playing playlist {} from the recordings", actions.getPlaylist());
+			return null;
+		}
+		File timelineFile = ActuatorTimeline.fileFor(routine);
+		File source = routine.isFile() ? routine : routine.getParentFile();
+		if (!timelineFile.isFile()) {
+			Log.warn("No timeline for {}, playing the recording", routine.getName());
+			return null;
+		}
+		if (timelineFile.lastModified() < source.lastModified()) {
+			Log.warn("Timeline for {} is older than the recording, playing the recording", routine.getName());
+			return null;
+		}
+		try {
+			ActuatorTimeline timeline = ActuatorTimeline.read(timelineFile);
+			Log.info("Timeline for {} has {} rows", routine.getName(), timeline.size());
+			return timeline;
+		} catch (IOException e) {
+			Log.error("{}: {}", timelineFile.getAbsolutePath(), e);
+			return null;
+		}
 	}
 
 	@Override
 	public void disabledInit() {
+		disabledInitTimer.start();
+		latencyTracer.report();
+		ThreadConfig.report();
+		boolean timelinePlayed = timelinePlayer.isPlaying();
+		timelinePlayer.stop();
+		if (timelinePlayed) {
+			// A resumed run starts after the last row the timeline played
+			actions.setLastPlayedOffset(timelinePlayer.getLastPlayedOffset());
+		}
+		disabledInitTimer.lap("Timeline");
 		actions.disabledInit();
+		disabledInitTimer.lap("Recorder");
+		writeOutputTrace();
+		disabledInitTimer.lap("Output Trace");
 		if (autoThread != null) {
-			System.out.println("Checking autonomous thread");
+			Log.info("Checking autonomous thread");
 			if (autoThread.isAlive()) {
-				System.out.println("Interrupting autonomous thread");
+				Log.info("Interrupting autonomous thread");
 				autoThread.interrupt();
 			}
 			try {
-				System.out.println("Joining autonomous thread");
+				Log.info("Joining autonomous thread");
 				autoThread.join(100);
 			} catch (InterruptedException e) {
-				System.out.println("Too long to join autonomous thread");
+				Log.warn("Too long to join autonomous thread");
 			}
 			if (!autoThread.isAlive()) {
 				autoThread = null;
-				System.out.println("Autonomous thread terminated");
+				Log.info("Autonomous thread terminated");
 			}
 		}
+		disabledInitTimer.lap("Auto Thread");
+		disabledInitTimer.end();
+	}
+
+	/*
+	 * The trace is copied, so that the next run can record into it, and the copy is written a few hundred rows
+	 * at a time as background work.  A garbage collection is suggested once it is written.
+	 */
+	private void writeOutputTrace() {
+		if (!outputTrace.isActive()) {
+			return;
+		}
+		outputTrace.stop();
+		if (outputTrace.size() == 0) {
+			return;
+		}
+
+		long start = !traceAuto ? DriverInput.getRecordTime() :
+				(autoTimeline != null) ? timelinePlayer.getPlaybackStart() : actions.getPlaybackStart();
+		File traceFile = new File("/home/lvuser/log/" + LocalDateTime.now().format(traceFmt) + (traceAuto ? "-auto" : "-teleop") + ".trace");
+		OutputTrace trace = outputTrace.copy();
+		background.submit("Output Trace", new BackgroundWork.Job() {
+			private Writer out;
+			private int row;
+
+			@Override
+			public boolean step() throws IOException {
+				try {
+					if (out == null) {
+						out = new BufferedWriter(new FileWriter(traceFile));
+					}
+					int end = Math.min(row + traceRowsPerStep, trace.size());
+					trace.write(out, start, row, end);
+					row = end;
+					if (row < trace.size()) {
+						return true;
+					}
+					out.close();
+				} catch (IOException e) {
+					if (out != null) {
+						out.close();
+					}
+					throw e;
+				}
+				Log.info("Output trace of {} cycles written to {}", trace.size(), traceFile.getAbsolutePath());
+				if (trace.getOverflow() > 0) {
+					Log.warn("Output trace {} dropped {} cycles", traceFile.getName(), trace.getOverflow());
+				}
+				return false;
+			}
+		});
+		background.submit("Suggest GC", System::gc);
 	}
 
 	@Override
 	public void disabledPeriodic() {
+		HIDSnapshot.updateAll();
 		actions.disabledPeriodic();
+		warmUp();
+		background.tick();
+	}
+
+	/*
+	 * Run robotOperation, the DriverInput accessors and the playback path against no-op actuators until they
+	 * are compiled, so that autonomous starts on compiled code.
+	 */
+	private void warmUp() {
+		if (warmupPassesDone >= warmupPasses) {
+			return;
+		}
+		if (warmupSet == null) {
+			warmupSet = makeWarmupInputs();
+		}
+
+		RobotBehavior savedBehavior = behavior;
+		behavior = new RobotBehavior(params, new NullActuators(), RobotBehavior.newTrace(0));
+		boolean passDone;
+		try {
+			passDone = actions.warmUp(warmupSet, warmupBudget);
+		} finally {
+			behavior = savedBehavior;
+		}
+
+		if (passDone && (++warmupPassesDone == warmupPasses)) {
+			actions.reportWarmUp();
+			warmupSet = null;
+		}
+	}
+
+	private List<DriverInput> makeWarmupInputs() {
+		Random rnd = new Random(1626);
+		List<DriverInput> inputs = new ArrayList<DriverInput>(warmupInputs);
+		for (int i=0; i<warmupInputs; i++) {
+			inputs.add(new DriverInput()
+					.withInput("Driver-Left", rnd.nextDouble()*2-1)
+					.withInput("Driver-Right", rnd.nextDouble()*2-1)
+					.withInput("Driver-Left-Trigger", rnd.nextInt(4) == 0)
+					.withInput("Driver-Right-Trigger", rnd.nextInt(4) == 0)
+					.withInput("Operator-Left-Trigger", rnd.nextInt(4) == 0)
+					.withInput("Operator-Left-Stick", rnd.nextDouble()*2-1)
+					.withInput("Operator-Left-Bumper", rnd.nextBoolean())
+					.withInput("Operator-Right-Trigger", rnd.nextInt(4) == 0)
+					.withInput("Operator-Right-Stick", rnd.nextDouble()*2-1)
+					.withInput("Operator-Right-Bumper", rnd.nextBoolean())
+					.withInput("Operator-A-Button", rnd.nextBoolean())
+					.withInput("Operator-B-Button", rnd.nextBoolean())
+					.withInput("Operator-X-Button", rnd.nextBoolean())
+					.withInput("Operator-Y-Button", rnd.nextBoolean())
+					.withInput("Operator-Start-Button", rnd.nextInt(4) == 0)
+					.withInput("Operator-Back-Button", rnd.nextInt(4) == 0)
+					.setTimeOffset(i * 20000));
+		}
+		return inputs;
 	}
 
 	@Override
@@ -334,8 +684,13 @@ public class Robot extends IterativeRobot {
 				//					autoThread.run();
 				//				}
 				if (!autoStarted) {
-					actions.notifierAuto();
-					autoStarted = true;
+					if (autoTimeline != null) {
+						timelinePlayer.start(autoTimeline, actions.getStartOffset());
+						autoStarted = true;
+					} else {
+						// false while the routine is a recording still being written
+						autoStarted = actions.notifierAuto();
+					}
 				}
 
 			} else
@@ -344,7 +699,7 @@ public class Robot extends IterativeRobot {
 			}
 		} catch (Exception e)
 		{
-			System.out.println("AP: " + e.toString());
+			Log.error("AP", e);
 		}
 
 
@@ -352,133 +707,60 @@ public class Robot extends IterativeRobot {
 
 	@Override
 	public void teleopInit() {
+		teleopInitTimer.start();
+		background.suspend();
 		DriverInput.setRecordTime();
 		actions.teleopInit();
-		// Robot initially in low gear, this sets it into high gear
-		shiftTo(Gear.HIGH_GEAR);
-		gearHandler.set(DoubleSolenoid.Value.kReverse);
+		teleopInitTimer.lap("Recorder");
+		latencyTracer.reset();
+		traceAuto=false;
+		outputTrace.start();
+		behavior.modeInit();
+		teleopInitTimer.lap("Mode Init");
+		teleopInitTimer.end();
 	}
 
 	@Override
 	public void teleopPeriodic() {
 
 		try {
-			actions.input(new DriverInput()
-					.withInput("Driver-Left", driverLeft.getRawAxis(1))
-					.withInput("Driver-Right", driverRight.getRawAxis(1))
-					.withInput("Driver-Left-Trigger", driverLeft.getRawButton(1))
-					.withInput("Driver-Right-Trigger", driverRight.getRawButton(1))
-					.withInput("Operator-Left-Trigger", xbox.getTrigger(Hand.kLeft))
-					.withInput("Operator-Left-Stick", xbox.getRawAxis(1))
-					.withInput("Operator-Left-Bumper", xbox.getBumper(Hand.kLeft))
-					.withInput("Operator-Right-Trigger", xbox.getTrigger(Hand.kRight))
-					.withInput("Operator-Right-Stick", xbox.getRawAxis(5))
-					.withInput("Operator-Right-Bumper", xbox.getBumper(Hand.kRight))
-					.withInput("Operator-A-Button", xbox.getAButton())
-					.withInput("Operator-B-Button", xbox.getBButton())
-					.withInput("Operator-X-Button", xbox.getXButton())
-					.withInput("Operator-Y-Button", xbox.getYButton())
-					.withInput("Operator-Start-Button", xbox.getStartButton())
-					.withInput("Operator-Back-Button", xbox.getBackButton())
-					);
-
-				} catch (IllegalAccessException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (IllegalArgumentException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (InvocationTargetException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			latencyTracer.beginCycle(getLoopScheduler().getCycleStart());
+			HIDSnapshot.updateAll();
+
+			DriverInput input = new DriverInput()
+					.withInput("Driver-Left", driverLeftHid.getRawAxis(1))
+					.withInput("Driver-Right", driverRightHid.getRawAxis(1))
+					.withInput("Driver-Left-Trigger", driverLeftHid.getRawButton(1))
+					.withInput("Driver-Right-Trigger", driverRightHid.getRawButton(1))
+					.withInput("Operator-Left-Trigger", xboxHid.getRawAxis(HIDSnapshot.kLeftTriggerAxis) > triggerPressed)
+					.withInput("Operator-Left-Stick", xboxHid.getRawAxis(1))
+					.withInput("Operator-Left-Bumper", xboxHid.getRawButton(HIDSnapshot.kLeftBumper))
+					.withInput("Operator-Right-Trigger", xboxHid.getRawAxis(HIDSnapshot.kRightTriggerAxis) > triggerPressed)
+					.withInput("Operator-Right-Stick", xboxHid.getRawAxis(5))
+					.withInput("Operator-Right-Bumper", xboxHid.getRawButton(HIDSnapshot.kRightBumper))
+					.withInput("Operator-A-Button", xboxHid.getRawButton(HIDSnapshot.kA))
+					.withInput("Operator-B-Button", xboxHid.getRawButton(HIDSnapshot.kB))
+					.withInput("Operator-X-Button", xboxHid.getRawButton(HIDSnapshot.kX))
+					.withInput("Operator-Y-Button", xboxHid.getRawButton(HIDSnapshot.kY))
+					.withInput("Operator-Start-Button", xboxHid.getRawButton(HIDSnapshot.kStart))
+					.withInput("Operator-Back-Button", xboxHid.getRawButton(HIDSnapshot.kBack));
+			latencyTracer.mark(LatencyTracer.INPUT);
+			actions.input(input);
+			latencyTracer.endCycle();
+
+		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+			Log.error("Teleop input failed", e);
 		}
 	}
 
 	public void robotOperation(DriverInput input) {
 		//		System.out.println("Operating with: <" + input.toString() + ">");
+		behavior.operate(input);
+	}
 
-		/*
-		 * THe following inputs may cause the compressor to be disabled, therefore, we gather them here and decide
-		 * if the compressor should be allowed to run.  After that decision has been made, then we will act on the
-		 * inputs.
-		 */
-		double leftAxis = input.getAxis("Driver-Left");
-		double rightAxis = input.getAxis("Driver-Right");
-		boolean startButton = input.getButton("Operator-Start-Button");
-		boolean backButton = input.getButton("Operator-Back-Button");
-		
-		/*
-		 * 	If the driver sticks are at more than throttleHighThreshold (plus or minus) or if the winch is running, then disable the
-		 *  compressor. Re-enable the compressor when the sticks are less than throttleLowThreshold, and the winch is not running.
-		 *  This should reduce the number of times we start and stop the compressor.
-		 */
-		boolean compressorEnabled = compressor.enabled();
-		if ((Math.abs(leftAxis) > throttleHighThreshold) || (Math.abs(rightAxis) > throttleHighThreshold) || startButton || backButton) {
-			if (compressorEnabled) {
-				compressor.stop();
-			}
-		}
-		if ((Math.abs(leftAxis) < throttleLowThreshold) && (Math.abs(rightAxis) < throttleLowThreshold) && (!startButton) && (!backButton)) {
-			if (!compressorEnabled) {
-				compressor.start();
-			}
-		}
-
-		drive.tankDrive(leftAxis, rightAxis);
-
-		if (startButton) {
-			winchTalon.set(winchSpeed);
-		} else if (backButton) {
-			winchTalon.set(-winchSpeed);
-		} else {
-			winchTalon.set(0);
-		}
-		
-		boolean shift = (input.getButton("Driver-Right-Trigger") || input.getButton("Driver-Left-Trigger"));
-		highGear.setState
-		(shift);
-		if (highGear.getState()) {
-			shiftTo(Gear.HIGH_GEAR);
-		} else {
-			shiftTo(Gear.LOW_GEAR);
-		}
-
-		if (input.getButton("Operator-X-Button") == true) {
-			shooterOneTopMotor.set(shooterSpeed);
-			shooterTwoTopMotor.set(shooterSpeed);
-			shooterOneBottomMotor.set(shooterSpeed);
-			shooterTwoBottomMotor.set(shooterSpeed);
-			agitatorLeft.set(agitatorSpeed);
-			agitatorRight.set(agitatorSpeed);
-		} else if (input.getButton("Operator-Y-Button") == true) {
-			shooterOneTopMotor.set(-shooterSpeed);
-			shooterTwoTopMotor.set(-shooterSpeed);
-			shooterOneBottomMotor.set(-shooterSpeed);
-			shooterTwoBottomMotor.set(-shooterSpeed);
-			agitatorLeft.set(-agitatorSpeed);
-			agitatorRight.set(-agitatorSpeed);
-		} else {
-			shooterOneTopMotor.set(0);
-			shooterTwoTopMotor.set(0);
-			shooterOneBottomMotor.set(0);
-			shooterTwoBottomMotor.set(0);
-			agitatorLeft.set(0);
-			agitatorRight.set(0);
-		}
-
-		if (input.getButton("Operator-Right-Bumper")) {
-			gearHandler.set(DoubleSolenoid.Value.kForward);
-		} else if (input.getButton("Operator-Left-Bumper")) {
-			gearHandler.set(DoubleSolenoid.Value.kReverse);
-		}
-
-		if (input.getButton("Operator-A-Button") == true) {
-			pickUpOneTalon.set(pickupSpeed);
-		} else if (input.getButton("Operator-B-Button") == true) {
-			pickUpOneTalon.set(-pickupSpeed);
-		} else {
-			pickUpOneTalon.set(0);
-		}
+	@Override
+	public void testInit() {
+		background.suspend();
 	}
 
 	public void testPeriodic() {
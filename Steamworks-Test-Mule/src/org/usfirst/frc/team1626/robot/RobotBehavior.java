@@ -0,0 +1,236 @@
+package org.usfirst.frc.team1626.robot;
+
+import edu.wpi.first.wpilibj.DoubleSolenoid;
+
+/**	The {@link RobotBehavior} class turns one {@link DriverInput} into actuator commands.  It is what
+ *  {@link Robot#robotOperation} runs, for teleoperated driving and for routine playback alike.  It only talks to the
+ *  robot through {@link Actuators} and takes its tuning values from {@link RobotParameters}, so the same code can be
+ *  run off the robot against simulated actuators (see {@link ParameterSweep}).
+ *
+ *  A behavior keeps state between cycles (the high gear toggle), so each run needs its own instance.
+ */
+
+public class RobotBehavior
+{
+	enum Gear {HIGH_GEAR, LOW_GEAR};
+
+	// Output trace channels
+	static final int TRACE_LEFT = 0;
+	static final int TRACE_RIGHT = 1;
+	static final int TRACE_WINCH = 2;
+	static final int TRACE_SHIFTER = 3;
+	static final int TRACE_SHOOTER = 4;
+	static final int TRACE_AGITATOR = 5;
+	static final int TRACE_GEAR_HANDLER = 6;
+	static final int TRACE_PICKUP = 7;
+	static final int TRACE_COMPRESSOR = 8;
+
+	private final RobotParameters params;
+	private final Actuators actuators;
+	private final OutputTrace outputTrace;
+	private final Toggle highGear = new Toggle();
+
+	public RobotBehavior(RobotParameters params, Actuators actuators, OutputTrace outputTrace)
+	{
+		this.params = params;
+		this.actuators = actuators;
+		this.outputTrace = outputTrace;
+	}
+
+	/**
+	 * A trace with one channel per actuator, for up to capacity cycles.
+	 */
+	public static OutputTrace newTrace(int capacity)
+	{
+		return new OutputTrace(capacity, "Drive-Left", "Drive-Right", "Winch", "Shifter",
+				"Shooter", "Agitator", "Gear-Handler", "Pickup", "Compressor");
+	}
+
+	/**
+	 * Register the inputs read by {@link #operate}, in the column order of recorded routines.
+	 */
+	public static void nameInputs()
+	{
+		DriverInput.nameInput("Driver-Left");
+		DriverInput.nameInput("Driver-Right");
+		DriverInput.nameInput("Driver-Left-Trigger");
+		DriverInput.nameInput("Driver-Right-Trigger");
+		DriverInput.nameInput("Operator-Left-Stick");
+		DriverInput.nameInput("Operator-Left-Bumper");
+		DriverInput.nameInput("Operator-Left-Trigger");
+		DriverInput.nameInput("Operator-Right-Stick");
+		DriverInput.nameInput("Operator-Right-Bumper");
+		DriverInput.nameInput("Operator-Right-Trigger");
+		DriverInput.nameInput("Operator-X-Button");
+		DriverInput.nameInput("Operator-Y-Button");
+		DriverInput.nameInput("Operator-A-Button");
+		DriverInput.nameInput("Operator-B-Button");
+		DriverInput.nameInput("Operator-Start-Button");
+		DriverInput.nameInput("Operator-Back-Button");
+	}
+
+	public RobotParameters getParameters()
+	{
+		return params;
+	}
+
+	/**
+	 * The state at the start of autonomous and teleop.
+	 */
+	public void modeInit()
+	{
+		// Robot initially in low gear, this sets it into high gear
+		shiftTo(Gear.HIGH_GEAR);
+		setGearHandler(DoubleSolenoid.Value.kReverse);
+	}
+
+	/**
+	 * Run every subsystem on one input, in sequence.
+	 */
+	public void operate(DriverInput input)
+	{
+		beginCycle(input);
+		operateCompressor(input);
+		operateDrive(input);
+		operateWinch(input);
+		operateShifter(input);
+		operateShooter(input);
+		operateGearHandler(input);
+		operatePickup(input);
+		endCycle(input);
+	}
+
+	/*
+	 * The subsystems only share the input and write separate trace channels, so they can also be run concurrently
+	 * by a BehaviorDispatcher, between beginCycle and endCycle.
+	 */
+
+	public void beginCycle(DriverInput input)
+	{
+		outputTrace.beginCycle();
+	}
+
+	public void endCycle(DriverInput input)
+	{
+		outputTrace.endCycle();
+	}
+
+	public void operateCompressor(DriverInput input)
+	{
+		double leftAxis = input.getAxis("Driver-Left");
+		double rightAxis = input.getAxis("Driver-Right");
+		boolean startButton = input.getButton("Operator-Start-Button");
+		boolean backButton = input.getButton("Operator-Back-Button");
+		double throttleHighThreshold = params.getThrottleHighThreshold();
+		double throttleLowThreshold = params.getThrottleLowThreshold();
+
+		/*
+		 * 	If the driver sticks are at more than throttleHighThreshold (plus or minus) or if the winch is running, then disable the
+		 *  compressor. Re-enable the compressor when the sticks are less than throttleLowThreshold, and the winch is not running.
+		 *  This should reduce the number of times we start and stop the compressor.
+		 */
+		boolean compressorEnabled = actuators.compressorEnabled();
+		if ((Math.abs(leftAxis) > throttleHighThreshold) || (Math.abs(rightAxis) > throttleHighThreshold) || startButton || backButton) {
+			if (compressorEnabled) {
+				actuators.stopCompressor();
+			}
+			compressorEnabled = false;
+		}
+		if ((Math.abs(leftAxis) < throttleLowThreshold) && (Math.abs(rightAxis) < throttleLowThreshold) && (!startButton) && (!backButton)) {
+			if (!compressorEnabled) {
+				actuators.startCompressor();
+			}
+			compressorEnabled = true;
+		}
+		outputTrace.set(TRACE_COMPRESSOR, compressorEnabled ? 1 : 0);
+	}
+
+	public void operateDrive(DriverInput input)
+	{
+		double leftAxis = input.getAxis("Driver-Left");
+		double rightAxis = input.getAxis("Driver-Right");
+		actuators.tankDrive(leftAxis, rightAxis);
+		outputTrace.set(TRACE_LEFT, leftAxis);
+		outputTrace.set(TRACE_RIGHT, rightAxis);
+	}
+
+	public void operateWinch(DriverInput input)
+	{
+		double winch = 0;
+		if (input.getButton("Operator-Start-Button")) {
+			winch = params.getWinchSpeed();
+		} else if (input.getButton("Operator-Back-Button")) {
+			winch = -params.getWinchSpeed();
+		}
+		actuators.setWinch(winch);
+		outputTrace.set(TRACE_WINCH, winch);
+	}
+
+	public void operateShifter(DriverInput input)
+	{
+		boolean shift = (input.getButton("Driver-Right-Trigger") || input.getButton("Driver-Left-Trigger"));
+		highGear.setState(shift);
+		if (highGear.getState()) {
+			shiftTo(Gear.HIGH_GEAR);
+		} else {
+			shiftTo(Gear.LOW_GEAR);
+		}
+	}
+
+	public void operateShooter(DriverInput input)
+	{
+		double shooter = 0;
+		double agitator = 0;
+		if (input.getButton("Operator-X-Button") == true) {
+			shooter = params.getShooterSpeed();
+			agitator = params.getAgitatorSpeed();
+		} else if (input.getButton("Operator-Y-Button") == true) {
+			shooter = -params.getShooterSpeed();
+			agitator = -params.getAgitatorSpeed();
+		}
+		actuators.setShooter(shooter);
+		actuators.setAgitator(agitator);
+		outputTrace.set(TRACE_SHOOTER, shooter);
+		outputTrace.set(TRACE_AGITATOR, agitator);
+	}
+
+	public void operateGearHandler(DriverInput input)
+	{
+		if (input.getButton("Operator-Right-Bumper")) {
+			setGearHandler(DoubleSolenoid.Value.kForward);
+		} else if (input.getButton("Operator-Left-Bumper")) {
+			setGearHandler(DoubleSolenoid.Value.kReverse);
+		}
+	}
+
+	public void operatePickup(DriverInput input)
+	{
+		double pickup = 0;
+		if (input.getButton("Operator-A-Button") == true) {
+			pickup = params.getPickupSpeed();
+		} else if (input.getButton("Operator-B-Button") == true) {
+			pickup = -params.getPickupSpeed();
+		}
+		actuators.setPickup(pickup);
+		outputTrace.set(TRACE_PICKUP, pickup);
+	}
+
+	private void shiftTo(Gear speed)
+	{
+		if (speed == Gear.HIGH_GEAR) {
+			actuators.shift(true);
+			outputTrace.set(TRACE_SHIFTER, DoubleSolenoid.Value.kReverse.ordinal());
+		}
+
+		if (speed == Gear.LOW_GEAR) {
+			actuators.shift(false);
+			outputTrace.set(TRACE_SHIFTER, DoubleSolenoid.Value.kForward.ordinal());
+		}
+	}
+
+	private void setGearHandler(DoubleSolenoid.Value value)
+	{
+		actuators.setGearHandler(value);
+		outputTrace.set(TRACE_GEAR_HANDLER, value.ordinal());
+	}
+}
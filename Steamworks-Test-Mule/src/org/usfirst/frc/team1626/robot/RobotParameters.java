@@ -0,0 +1,116 @@
+package org.usfirst.frc.team1626.robot;
+
+/**	The {@link RobotParameters} class holds the tuning values used by {@link RobotBehavior}.  The defaults are the
+ *  values the robot competes with; a copy can be changed with the fluent setters, for example by
+ *  {@link ParameterSweep} to try other combinations against recorded routines.
+ */
+
+public class RobotParameters
+{
+	private double pickupSpeed = .90;
+	private double shooterSpeed = 1.0;
+	private double agitatorSpeed = 1.0;
+	private double winchSpeed = 1.0;
+	private int driveCurrentLimit = 60;
+	private double throttleHighThreshold = .60;
+	private double throttleLowThreshold = .40;
+
+	public RobotParameters()
+	{
+	}
+
+	public RobotParameters(RobotParameters other)
+	{
+		pickupSpeed = other.pickupSpeed;
+		shooterSpeed = other.shooterSpeed;
+		agitatorSpeed = other.agitatorSpeed;
+		winchSpeed = other.winchSpeed;
+		driveCurrentLimit = other.driveCurrentLimit;
+		throttleHighThreshold = other.throttleHighThreshold;
+		throttleLowThreshold = other.throttleLowThreshold;
+	}
+
+	public double getPickupSpeed()
+	{
+		return pickupSpeed;
+	}
+
+	public RobotParameters setPickupSpeed(double speed)
+	{
+		pickupSpeed = speed;
+		return this;
+	}
+
+	public double getShooterSpeed()
+	{
+		return shooterSpeed;
+	}
+
+	public RobotParameters setShooterSpeed(double speed)
+	{
+		shooterSpeed = speed;
+		return this;
+	}
+
+	public double getAgitatorSpeed()
+	{
+		return agitatorSpeed;
+	}
+
+	public RobotParameters setAgitatorSpeed(double speed)
+	{
+		agitatorSpeed = speed;
+		return this;
+	}
+
+	public double getWinchSpeed()
+	{
+		return winchSpeed;
+	}
+
+	public RobotParameters setWinchSpeed(double speed)
+	{
+		winchSpeed = speed;
+		return this;
+	}
+
+	public int getDriveCurrentLimit()
+	{
+		return driveCurrentLimit;
+	}
+
+	public RobotParameters setDriveCurrentLimit(int amps)
+	{
+		driveCurrentLimit = amps;
+		return this;
+	}
+
+	public double getThrottleHighThreshold()
+	{
+		return throttleHighThreshold;
+	}
+
+	public RobotParameters setThrottleHighThreshold(double threshold)
+	{
+		throttleHighThreshold = threshold;
+		return this;
+	}
+
+	public double getThrottleLowThreshold()
+	{
+		return throttleLowThreshold;
+	}
+
+	public RobotParameters setThrottleLowThreshold(double threshold)
+	{
+		throttleLowThreshold = threshold;
+		return this;
+	}
+
+	public String toString()
+	{
+		return "pickup=" + pickupSpeed + " shooter=" + shooterSpeed + " agitator=" + agitatorSpeed +
+				" winch=" + winchSpeed + " currentLimit=" + driveCurrentLimit +
+				" throttleHigh=" + throttleHighThreshold + " throttleLow=" + throttleLowThreshold;
+	}
+}
@@ -0,0 +1,309 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**	The {@link RoutineParser} class reads the ';' delimited routine files written by {@link ActionRecorder}.  Each line
+ *  is a time offset followed by one value per input: "true" or "false" for a button, "null" for a missing input,
+ *  otherwise a number.
+ *
+ *  The file is read through NIO into a buffer that is kept between calls, and the bytes are parsed in place straight
+ *  into an {@link InputStore}; no String or boxed value is created per token.  Numbers with up to 15 significant
+ *  digits are converted exactly without allocation; longer ones (rare in recordings) fall back to
+ *  {@link Double#parseDouble}.
+ *
+ *  A malformed line stops the parse with an {@link IOException} naming the line, and the store is left empty, so a
+ *  bad file never produces a partial routine.
+ */
+
+public class RoutineParser
+{
+	private static final double[] powersOfTen = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	private static final long maxExactMantissa = 1L << 53;
+
+	private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+	private final InputStore store = new InputStore();
+
+	// Parse state
+	private byte[] data;
+	private int pos;
+	private int end;
+	private int lineNumber;
+
+	public InputStore parse(File file) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel())
+		{
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+			{
+				throw new IOException(file.getName() + ": too large");
+			}
+			if (size > buffer.capacity())
+			{
+				buffer = ByteBuffer.allocate((int)size);
+			}
+			buffer.clear();
+			while (buffer.position() < size && channel.read(buffer) >= 0)
+			{
+			}
+			return parse(buffer.array(), buffer.position());
+		}
+	}
+
+	/**
+	 * Parse the first length bytes of data.  The returned store is reused by the next parse.
+	 */
+	public InputStore parse(byte[] data, int length) throws IOException
+	{
+		this.data = data;
+		this.pos = 0;
+		this.end = length;
+		this.lineNumber = 0;
+		store.clear(countColumns());
+
+		try
+		{
+			while (pos < end)
+			{
+				lineNumber++;
+				parseLine();
+			}
+		} catch (IOException e) {
+			store.clear(0);
+			throw e;
+		} finally
+		{
+			this.data = null;
+		}
+		return store;
+	}
+
+	/*
+	 * The number of values is the number of ';' on the first line.
+	 */
+	private int countColumns()
+	{
+		int count = 0;
+		for (int i=0; i<end && data[i] != '\n'; i++)
+		{
+			if (data[i] == ';')
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void parseLine() throws IOException
+	{
+		int lineEnd = pos;
+		while (lineEnd < end && data[lineEnd] != '\n')
+		{
+			lineEnd++;
+		}
+		int next = lineEnd + 1;
+		if (lineEnd > pos && data[lineEnd-1] == '\r')
+		{
+			lineEnd--;
+		}
+		if (lineEnd == pos)
+		{
+			pos = next;		// blank line
+			return;
+		}
+
+		int tokEnd = tokenEnd(pos, lineEnd);
+		store.addRow(parseLong(pos, tokEnd));
+
+		int column = 0;
+		while (tokEnd < lineEnd)
+		{
+			int tokStart = tokEnd + 1;
+			tokEnd = tokenEnd(tokStart, lineEnd);
+			if (column >= store.getColumns())
+			{
+				throw error("more than " + store.getColumns() + " values");
+			}
+			parseValue(column++, tokStart, tokEnd);
+		}
+		pos = next;
+	}
+
+	private int tokenEnd(int from, int lineEnd)
+	{
+		while (from < lineEnd && data[from] != ';')
+		{
+			from++;
+		}
+		return from;
+	}
+
+	private void parseValue(int column, int start, int stop) throws IOException
+	{
+		int len = stop - start;
+		if (len == 4 && matches(start, "true"))
+		{
+			store.setButton(column, true);
+		} else if (len == 5 && matches(start, "false"))
+		{
+			store.setButton(column, false);
+		} else if (len == 4 && matches(start, "null"))
+		{
+			// left as NONE
+		} else
+		{
+			store.setAxis(column, parseDouble(start, stop));
+		}
+	}
+
+	/*
+	 * Case insensitive compare with a lower case ASCII word.
+	 */
+	private boolean matches(int start, String word)
+	{
+		for (int i=0; i<word.length(); i++)
+		{
+			if ((data[start+i] | 0x20) != word.charAt(i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private long parseLong(int start, int stop) throws IOException
+	{
+		if (start == stop)
+		{
+			throw error("missing time offset");
+		}
+		boolean negative = data[start] == '-';
+		int i = negative ? start+1 : start;
+		if (i == stop)
+		{
+			throw error("bad time offset");
+		}
+		long value = 0;
+		for (; i<stop; i++)
+		{
+			int d = data[i] - '0';
+			if (d < 0 || d > 9)
+			{
+				throw error("bad time offset");
+			}
+			value = value*10 + d;
+		}
+		return negative ? -value : value;
+	}
+
+	private double parseDouble(int start, int stop) throws IOException
+	{
+		int i = start;
+		boolean negative = false;
+		if (i < stop && (data[i] == '-' || data[i] == '+'))
+		{
+			negative = data[i] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean seenDigit = false;
+		boolean seenPoint = false;
+
+		for (; i<stop; i++)
+		{
+			byte b = data[i];
+			if (b >= '0' && b <= '9')
+			{
+				seenDigit = true;
+				if (digits < 18)
+				{
+					mantissa = mantissa*10 + (b - '0');
+					if (mantissa != 0)
+					{
+						digits++;
+					}
+					if (seenPoint)
+					{
+						scale--;
+					}
+				} else if (!seenPoint)
+				{
+					scale++;
+				}
+			} else if (b == '.' && !seenPoint)
+			{
+				seenPoint = true;
+			} else
+			{
+				break;
+			}
+		}
+		if (!seenDigit)
+		{
+			return slowDouble(start, stop);
+		}
+
+		if (i < stop && (data[i] == 'e' || data[i] == 'E'))
+		{
+			i++;
+			boolean expNegative = false;
+			if (i < stop && (data[i] == '-' || data[i] == '+'))
+			{
+				expNegative = data[i] == '-';
+				i++;
+			}
+			if (i == stop)
+			{
+				throw error("bad number");
+			}
+			int exp = 0;
+			for (; i<stop; i++)
+			{
+				int d = data[i] - '0';
+				if (d < 0 || d > 9 || exp > 10000)
+				{
+					throw error("bad number");
+				}
+				exp = exp*10 + d;
+			}
+			scale += expNegative ? -exp : exp;
+		}
+		if (i != stop)
+		{
+			throw error("bad number");
+		}
+
+		// Exact when both the mantissa and the power of ten are exactly representable
+		if (mantissa < maxExactMantissa && scale >= -22 && scale <= 22)
+		{
+			double value = (scale < 0) ? mantissa / powersOfTen[-scale] : mantissa * powersOfTen[scale];
+			return negative ? -value : value;
+		}
+		return slowDouble(start, stop);
+	}
+
+	private double slowDouble(int start, int stop) throws IOException
+	{
+		try
+		{
+			return Double.parseDouble(new String(data, start, stop-start, "US-ASCII"));
+		} catch (NumberFormatException e) {
+			throw error("bad number");
+		}
+	}
+
+	private IOException error(String message)
+	{
+		return new IOException("line " + lineNumber + ": " + message);
+	}
+}
@@ -0,0 +1,128 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**	Compares {@link RoutineParser} with the String based tokenizer that {@link ActionRecorder} used before it, on a
+ *  synthetic routine shaped like a real recording (a 20 ms period and the sixteen inputs used by {@link Robot}).
+ *  Both are timed the way playback uses them, up to the list of {@link DriverInput}s: the old tokenizer built them
+ *  line by line, and the parser's {@link InputStore} is converted with {@link InputStore#toDriverInputs}.  The
+ *  parse alone is timed as well, to show how much of the time is now spent building the inputs.  Everything is run
+ *  until compiled before it is timed.  This does not need the robot; run it on a laptop with:
+ *
+ *  		java org.usfirst.frc.team1626.robot.RoutineParserBenchmark [lines] [rounds]
+ */
+
+public class RoutineParserBenchmark
+{
+	public static void main(String[] args) throws IOException
+	{
+		int lines = (args.length > 0) ? Integer.parseInt(args[0]) : 7500;
+		int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+
+		String text = makeRoutine(lines);
+		byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+		RoutineParser parser = new RoutineParser();
+		RobotBehavior.nameInputs();
+
+		// Check that both produce the same inputs
+		List<DriverInput> legacy = legacyParse(text);
+		List<DriverInput> parsed = parser.parse(bytes, bytes.length).toDriverInputs();
+		for (int r=0; r<lines; r++)
+		{
+			if (!legacy.get(r).toString().equals(parsed.get(r).toString()))
+			{
+				System.err.println("Mismatch at line " + (r+1));
+				System.exit(1);
+			}
+		}
+
+		for (int i=0; i<rounds; i++)
+		{
+			legacyParse(text);
+			parser.parse(bytes, bytes.length).toDriverInputs();
+		}
+
+		long t0 = System.nanoTime();
+		for (int i=0; i<rounds; i++)
+		{
+			legacyParse(text);
+		}
+		long t1 = System.nanoTime();
+		for (int i=0; i<rounds; i++)
+		{
+			parser.parse(bytes, bytes.length).toDriverInputs();
+		}
+		long t2 = System.nanoTime();
+		for (int i=0; i<rounds; i++)
+		{
+			parser.parse(bytes, bytes.length);
+		}
+		long t3 = System.nanoTime();
+
+		double legacyMs = (t1 - t0) / 1.0e6 / rounds;
+		double parserMs = (t2 - t1) / 1.0e6 / rounds;
+		double parseOnlyMs = (t3 - t2) / 1.0e6 / rounds;
+		System.out.printf("%d lines, %d bytes%n", lines, bytes.length);
+		System.out.printf("legacy split parser:          %8.3f ms per routine%n", legacyMs);
+		System.out.printf("RoutineParser + DriverInputs: %8.3f ms per routine (%.1fx)%n", parserMs, legacyMs / parserMs);
+		System.out.printf("RoutineParser alone:          %8.3f ms per routine%n", parseOnlyMs);
+	}
+
+	private static String makeRoutine(int lines)
+	{
+		Random rnd = new Random(1626);
+		StringBuilder text = new StringBuilder();
+		for (int i=0; i<lines; i++)
+		{
+			text.append(i * 20000L);
+			for (int c=0; c<16; c++)
+			{
+				text.append(';');
+				if (c == 2 || c == 3 || c == 5 || c >= 8)
+				{
+					text.append(rnd.nextBoolean());
+				} else
+				{
+					text.append(Math.round(rnd.nextDouble() * 256 - 128) / 128.0);
+				}
+			}
+			text.append('\n');
+		}
+		return text.toString();
+	}
+
+	/*
+	 * The tokenizer formerly in ActionRecorder.readAutoFile.
+	 */
+	@SuppressWarnings("deprecation")
+	private static List<DriverInput> legacyParse(String text) throws IOException
+	{
+		List<DriverInput> rows = new ArrayList<DriverInput>();
+		BufferedReader inFile = new BufferedReader(new StringReader(text));
+		String line;
+		while ((line=inFile.readLine()) != null)
+		{
+			String[] tokens = line.split(";");
+			int timeOffset = Integer.parseInt(tokens[0]);
+			Object[] drIn = new Object[tokens.length-1];
+			for (int i=1; i < tokens.length; i++)
+			{
+				if (tokens[i].equalsIgnoreCase("true") || tokens[i].equalsIgnoreCase("false")) {
+					drIn[i-1] = new Boolean(tokens[i]);
+				} else if (tokens[i].equalsIgnoreCase("null")) {
+					drIn[i-1]=null;
+				} else {
+					drIn[i-1]=new Double(tokens[i]);
+				}
+			}
+			rows.add(new DriverInput(timeOffset, drIn));
+		}
+		return rows;
+	}
+}
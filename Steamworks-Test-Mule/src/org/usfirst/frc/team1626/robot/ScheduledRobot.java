@@ -0,0 +1,97 @@
+package org.usfirst.frc.team1626.robot;
+
+import edu.wpi.first.wpilibj.IterativeRobot;
+import edu.wpi.first.wpilibj.hal.HAL;
+import edu.wpi.first.wpilibj.livewindow.LiveWindow;
+
+/**	The {@link ScheduledRobot} class is an {@link IterativeRobot} whose main loop is paced by a {@link LoopScheduler}
+ *  instead of always waiting for the next Driver Station packet.  The mode init and periodic methods are called
+ *  exactly as IterativeRobot calls them, so a robot only has to change the class it extends and choose a mode with
+ *  {@link #setLoopScheduler}.  The default is the Driver Station packet driven loop.  The period statistics are
+ *  restarted on every mode change, so that each mode's jitter is measured separately.  Each pass of the loop, from
+ *  the end of the wait to the end of robotPeriodic, is a {@link FlightEvents} control cycle event.
+ */
+
+public class ScheduledRobot extends IterativeRobot
+{
+	private enum RobotMode {NONE, DISABLED, AUTONOMOUS, TELEOP, TEST};
+
+	private LoopScheduler scheduler = new LoopScheduler(LoopScheduler.Mode.DS_PACKET, 0.020);
+	private RobotMode lastMode = RobotMode.NONE;
+
+	/**
+	 * Choose the loop scheduler.  This must be done before the competition starts, normally in the constructor.
+	 */
+	protected void setLoopScheduler(LoopScheduler sched)
+	{
+		scheduler = sched;
+	}
+
+	public LoopScheduler getLoopScheduler()
+	{
+		return scheduler;
+	}
+
+	@Override
+	public void startCompetition()
+	{
+		robotInit();
+
+		HAL.observeUserProgramStarting();
+		LiveWindow.setEnabled(false);
+
+		while (true)
+		{
+			scheduler.waitForNext();
+			Object cycle = FlightEvents.begin(FlightEvents.CYCLE);
+
+			if (isDisabled())
+			{
+				if (lastMode != RobotMode.DISABLED)
+				{
+					LiveWindow.setEnabled(false);
+					disabledInit();
+					lastMode = RobotMode.DISABLED;
+					scheduler.resetStatistics();
+				}
+				HAL.observeUserProgramDisabled();
+				disabledPeriodic();
+			} else if (isTest())
+			{
+				if (lastMode != RobotMode.TEST)
+				{
+					LiveWindow.setEnabled(true);
+					testInit();
+					lastMode = RobotMode.TEST;
+					scheduler.resetStatistics();
+				}
+				HAL.observeUserProgramTest();
+				testPeriodic();
+			} else if (isAutonomous())
+			{
+				if (lastMode != RobotMode.AUTONOMOUS)
+				{
+					LiveWindow.setEnabled(false);
+					autonomousInit();
+					lastMode = RobotMode.AUTONOMOUS;
+					scheduler.resetStatistics();
+				}
+				HAL.observeUserProgramAutonomous();
+				autonomousPeriodic();
+			} else
+			{
+				if (lastMode != RobotMode.TELEOP)
+				{
+					LiveWindow.setEnabled(false);
+					teleopInit();
+					lastMode = RobotMode.TELEOP;
+					scheduler.resetStatistics();
+				}
+				HAL.observeUserProgramTeleop();
+				teleopPeriodic();
+			}
+			robotPeriodic();
+			FlightEvents.cycle(cycle, lastMode.name(), scheduler.getLastPeriod());
+		}
+	}
+}
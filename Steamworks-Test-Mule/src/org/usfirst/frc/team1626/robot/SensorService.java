@@ -0,0 +1,210 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.DoubleSupplier;
+
+import com.ctre.CANTalon;
+
+import edu.wpi.first.wpilibj.AnalogInput;
+import edu.wpi.first.wpilibj.PowerDistributionPanel;
+import edu.wpi.first.wpilibj.Utility;
+
+/**	The {@link SensorService} class polls slow sensors on a background thread, so the control loop never waits on
+ *  them.  PDP readings in particular are CAN transactions that can take milliseconds.  Each channel is registered
+ *  with its own polling period and an optional number of samples to average, and the latest value of each channel
+ *  is published as an immutable {@link Reading} with the FPGA time at which it was taken.  Reading a channel from
+ *  the control loop is a single volatile array load.
+ *
+ *  Typical use:
+ *
+ *  		sensors = new SensorService();
+ *  		pressureChannel = sensors.addAnalog("Pressure", pressureSensor, 0.050);
+ *  		voltageChannel = sensors.addPDPVoltage(pdp, 0.100);
+ *  		sensors.start();
+ *  		...
+ *  		double volts = sensors.get(pressureChannel).value;
+ */
+
+public class SensorService implements Runnable
+{
+	private static final long idleMicros = 1000;
+
+	public static class Reading
+	{
+		public final double value;
+		public final long time;		// FPGA microseconds
+
+		Reading(double value, long time)
+		{
+			this.value = value;
+			this.time = time;
+		}
+
+		public double age()
+		{
+			return ((double)(Utility.getFPGATime() - time)) / 1000000.0;
+		}
+	}
+
+	private static class Channel
+	{
+		String name;
+		DoubleSupplier source;
+		long period;
+		int average;
+		long nextPoll;
+	}
+
+	private final List<Channel> channels = new ArrayList<Channel>();
+	private AtomicReferenceArray<Reading> readings;
+	private Thread poller;
+
+	/**
+	 * Register a channel and return its index.  The period is in seconds; average is the number of samples to
+	 * take and average on each poll (1 for none).  Channels must be registered before {@link #start}.
+	 */
+	public synchronized int add(String name, DoubleSupplier source, double period, int average)
+	{
+		if (poller != null)
+		{
+			throw new IllegalStateException("SensorService already started");
+		}
+		Channel ch = new Channel();
+		ch.name = name;
+		ch.source = source;
+		ch.period = (long)(period * 1000000.0);
+		ch.average = Math.max(1, average);
+		channels.add(ch);
+		return channels.size()-1;
+	}
+
+	public int add(String name, DoubleSupplier source, double period)
+	{
+		return add(name, source, period, 1);
+	}
+
+	/**
+	 * Analog inputs can also be oversampled by the FPGA; this averages on the polling thread.
+	 */
+	public int addAnalog(String name, AnalogInput input, double period, int average)
+	{
+		return add(name, input::getVoltage, period, average);
+	}
+
+	public int addAnalog(String name, AnalogInput input, double period)
+	{
+		return addAnalog(name, input, period, 1);
+	}
+
+	public int addPDPVoltage(PowerDistributionPanel pdp, double period)
+	{
+		return add("PDP/Voltage", pdp::getVoltage, period);
+	}
+
+	public int addPDPCurrent(PowerDistributionPanel pdp, int pdpChannel, double period)
+	{
+		return add("PDP/Current " + pdpChannel, () -> pdp.getCurrent(pdpChannel), period);
+	}
+
+	public int addTalonCurrent(String name, CANTalon talon, double period)
+	{
+		return add(name + "/Current", talon::getOutputCurrent, period);
+	}
+
+	public int addTalonSpeed(String name, CANTalon talon, double period)
+	{
+		return add(name + "/Speed", talon::getSpeed, period);
+	}
+
+	public synchronized void start()
+	{
+		if (poller == null)
+		{
+			readings = new AtomicReferenceArray<Reading>(channels.size());
+			poller = new Thread(this, "SensorService");
+			poller.setDaemon(true);
+			poller.start();
+		}
+	}
+
+	public synchronized void stop()
+	{
+		if (poller != null)
+		{
+			poller.interrupt();
+			poller = null;
+		}
+	}
+
+	/**
+	 * The latest reading of a channel, or null if it has not been polled yet.
+	 */
+	public Reading get(int channel)
+	{
+		return readings.get(channel);
+	}
+
+	public double getValue(int channel, double dflt)
+	{
+		Reading r = readings.get(channel);
+		return (r != null) ? r.value : dflt;
+	}
+
+	public String getName(int channel)
+	{
+		return channels.get(channel).name;
+	}
+
+	public int size()
+	{
+		return channels.size();
+	}
+
+	@Override
+	public void run()
+	{
+		int count = channels.size();
+
+		while (!Thread.currentThread().isInterrupted())
+		{
+			long now = Utility.getFPGATime();
+			long next = now + 100000;
+
+			for (int i=0; i<count; i++)
+			{
+				Channel ch = channels.get(i);
+				if (now >= ch.nextPoll)
+				{
+					poll(i, ch);
+					ch.nextPoll = Math.max(ch.nextPoll + ch.period, now);
+				}
+				next = Math.min(next, ch.nextPoll);
+			}
+
+			long sleep = Math.max(next - Utility.getFPGATime(), idleMicros);
+			try
+			{
+				Thread.sleep(sleep / 1000, (int)(sleep % 1000) * 1000);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	private void poll(int idx, Channel ch)
+	{
+		try
+		{
+			double sum = 0;
+			for (int s=0; s<ch.average; s++)
+			{
+				sum += ch.source.getAsDouble();
+			}
+			readings.set(idx, new Reading(sum / ch.average, Utility.getFPGATime()));
+		} catch (RuntimeException e) {
+			Log.warn("Sensor {} failed: {}", ch.name, e);
+		}
+	}
+}
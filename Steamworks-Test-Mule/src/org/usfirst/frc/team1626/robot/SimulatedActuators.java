@@ -0,0 +1,179 @@
+package org.usfirst.frc.team1626.robot;
+
+import edu.wpi.first.wpilibj.DoubleSolenoid;
+
+/**	The {@link SimulatedActuators} class stands in for the robot's devices when {@link RobotBehavior} is run off the
+ *  robot, and keeps the statistics that {@link ParameterSweep} compares: how often the compressor was started and
+ *  stopped, how often the drive shifted, and the peak and mean current commanded.
+ *
+ *  The current model is deliberately crude: each motor draws its stall current times the magnitude of its command,
+ *  which is what it would draw starting from rest, and the drive motors are capped at the drive current limit while
+ *  in high gear (where the limit is enabled).  The compressor draws a fixed current while running.  The numbers are
+ *  an upper bound for comparing parameter sets, not a prediction of the real draw.
+ */
+
+public class SimulatedActuators implements Actuators
+{
+	// Stall currents in amps, and motors per mechanism
+	private static final double cimStall = 131.0;
+	private static final double shooterStall = 134.0;
+	private static final double smallStall = 89.0;
+	private static final double compressorCurrent = 10.0;
+	private static final int driveMotorsPerSide = 2;
+	private static final int shooterMotors = 4;
+	private static final int agitatorMotors = 2;
+
+	private final RobotParameters params;
+
+	private boolean compressorOn = true;
+	private boolean highGear;
+	private double left;
+	private double right;
+	private double winch;
+	private double shooter;
+	private double agitator;
+	private double pickup;
+
+	private int compressorStarts;
+	private int compressorStops;
+	private int shifts;
+	private int cycles;
+	private double peakCurrent;
+	private double sumCurrent;
+
+	public SimulatedActuators(RobotParameters params)
+	{
+		this.params = params;
+	}
+
+	@Override
+	public boolean compressorEnabled()
+	{
+		return compressorOn;
+	}
+
+	@Override
+	public void startCompressor()
+	{
+		if (!compressorOn)
+		{
+			compressorStarts++;
+		}
+		compressorOn = true;
+	}
+
+	@Override
+	public void stopCompressor()
+	{
+		if (compressorOn)
+		{
+			compressorStops++;
+		}
+		compressorOn = false;
+	}
+
+	@Override
+	public void tankDrive(double left, double right)
+	{
+		this.left = left;
+		this.right = right;
+	}
+
+	@Override
+	public void setWinch(double speed)
+	{
+		winch = speed;
+	}
+
+	@Override
+	public void shift(boolean highGear)
+	{
+		if (highGear != this.highGear)
+		{
+			shifts++;
+		}
+		this.highGear = highGear;
+	}
+
+	@Override
+	public void setShooter(double speed)
+	{
+		shooter = speed;
+	}
+
+	@Override
+	public void setAgitator(double speed)
+	{
+		agitator = speed;
+	}
+
+	@Override
+	public void setGearHandler(DoubleSolenoid.Value value)
+	{
+	}
+
+	@Override
+	public void setPickup(double speed)
+	{
+		pickup = speed;
+	}
+
+	/**
+	 * Account for the commands of the cycle just run by the behavior.
+	 */
+	public void endCycle()
+	{
+		double current = driveCurrent(left) + driveCurrent(right) +
+				Math.abs(winch) * cimStall +
+				Math.abs(shooter) * shooterStall * shooterMotors +
+				Math.abs(agitator) * smallStall * agitatorMotors +
+				Math.abs(pickup) * smallStall +
+				(compressorOn ? compressorCurrent : 0.0);
+		cycles++;
+		sumCurrent += current;
+		if (current > peakCurrent)
+		{
+			peakCurrent = current;
+		}
+	}
+
+	private double driveCurrent(double command)
+	{
+		double perMotor = Math.abs(command) * cimStall;
+		if (highGear)
+		{
+			perMotor = Math.min(perMotor, params.getDriveCurrentLimit());
+		}
+		return perMotor * driveMotorsPerSide;
+	}
+
+	public int getCompressorStarts()
+	{
+		return compressorStarts;
+	}
+
+	public int getCompressorStops()
+	{
+		return compressorStops;
+	}
+
+	public int getShifts()
+	{
+		return shifts;
+	}
+
+	public int getCycles()
+	{
+		return cycles;
+	}
+
+	public double getPeakCurrent()
+	{
+		return peakCurrent;
+	}
+
+	public double getMeanCurrent()
+	{
+		return (cycles > 0) ? sumCurrent / cycles : 0.0;
+	}
+}
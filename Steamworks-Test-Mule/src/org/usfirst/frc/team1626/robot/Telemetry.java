@@ -0,0 +1,341 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.wpi.first.wpilibj.Utility;
+
+/**	The {@link Telemetry} class publishes robot metrics in a memory-mapped file, so that separate low priority
+ *  processes (a log shipper, a test harness) can read them without any cost to the robot beyond a few memory
+ *  stores.  The file has a fixed layout: a header, a table of named counters holding the latest value of each
+ *  metric, and a ring of timestamped samples.
+ *
+ *  Layout, version 2, all values little-endian:
+ *
+ *  		offset 0	int		magic 0x314d4c54 ("TLM1")
+ *  		offset 4	int		layout version (2)
+ *  		offset 8	int		number of counters, C
+ *  		offset 12	int		number of ring slots, R
+ *  		offset 16	long	counter sequence number (seqlock, odd while the counters are being updated)
+ *  		offset 24	long	samples started (the ring head); the latest may still be being written
+ *  		offset 32	long	FPGA time of the last counter update, microseconds
+ *  		offset 40	24 bytes reserved
+ *  		offset 64	C times 32 bytes: counter name, ASCII, NUL padded
+ *  		then		C times 8 bytes: counter value, double
+ *  		then		R times 24 bytes: sample slot (long FPGA time, int channel, int stamp, double value)
+ *
+ *  Sample i (counting from 0 since the file was created) is in slot i % R.
+ *
+ *  The counters are read with the sequence number as a seqlock: read it, wait while it is odd, copy the counters,
+ *  then read it again and retry if it changed.  The writer makes it odd, updates the counters, and makes it even
+ *  again.  Counter writers in the robot process take turns through a lock held from {@link #beginUpdate} to
+ *  {@link #endUpdate}.
+ *
+ *  Samples take no lock, so that the playback Notifier never waits on the main loop: each sample claims the next
+ *  ring index with a compare and set, and the slot has its own sequence, the stamp.  For sample i the complete
+ *  stamp is ((i + 1) mod 2^30) * 2, and it is one more (odd) while the slot is being written.  A reader takes sample
+ *  i from its slot only if the stamp is the complete stamp of i both before and after copying the slot; otherwise
+ *  the sample is being written or has been overwritten.  The head is stored after each claim and may briefly lag.
+ *
+ *  A reader in another process only sees the order of the stores to the mapped memory, so the writer puts a store
+ *  fence after making a sequence number or stamp odd (so no data store is seen before it) and before making it
+ *  complete (so every data store is seen before it); the reader puts load fences around its copy.  Java 8 has no
+ *  public fences, so these are sun.misc.Unsafe.storeFence and loadFence, found by reflection since they are not part
+ *  of the API the robot is compiled against.  If they cannot be found volatile accesses are used instead, which
+ *  only order the mapped memory on HotSpot, where they come with full barriers (a dmb on the roboRIO's ARM); this
+ *  is logged.
+ */
+
+public class Telemetry
+{
+	public static final String defaultFileName = "/home/lvuser/telemetry.bin";
+
+	private static final int MAGIC = 0x314d4c54;
+	private static final int VERSION = 2;
+	private static final int headerSize = 64;
+	private static final int nameSize = 32;
+	private static final int slotSize = 24;
+
+	private static final int SEQ = 16;
+	private static final int HEAD = 24;
+	private static final int TIME = 32;
+	private static final int STAMP = 12;		// in a slot
+
+	private final MappedByteBuffer map;
+	private final String[] names;
+	private final int counters;
+	private final int slots;
+	private final int valueBase;
+	private final int ringBase;
+	private long seq;
+	private final AtomicLong head = new AtomicLong();
+	private final ReentrantLock writer = new ReentrantLock();
+
+	private static final MethodHandle storeFence = findFence("storeFence");
+	private static final MethodHandle loadFence = findFence("loadFence");
+
+	// Only used when there are no fences
+	private static volatile int fence;
+
+	private Telemetry(MappedByteBuffer map, String[] names, int slots)
+	{
+		this.map = map;
+		this.names = names;
+		this.counters = names.length;
+		this.slots = slots;
+		this.valueBase = headerSize + counters * nameSize;
+		this.ringBase = valueBase + counters * 8;
+	}
+
+	private static MethodHandle findFence(String name)
+	{
+		try
+		{
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			return MethodHandles.lookup().unreflect(unsafeClass.getMethod(name)).bindTo(theUnsafe.get(null));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			Log.warn("No {} for telemetry, relying on volatile accesses", name, e);
+			return null;
+		}
+	}
+
+	/*
+	 * Stores before this are seen by other processes before stores after it.
+	 */
+	private static void storeFence()
+	{
+		if (storeFence == null)
+		{
+			fence = 0;
+			return;
+		}
+		try
+		{
+			storeFence.invokeExact();
+		} catch (Throwable e) {
+			throw new IllegalStateException("Store fence failed", e);
+		}
+	}
+
+	/*
+	 * Loads before this are done before loads after it.
+	 */
+	private static void loadFence()
+	{
+		if (loadFence == null)
+		{
+			if (fence != 0)
+			{
+				fence = 0;
+			}
+			return;
+		}
+		try
+		{
+			loadFence.invokeExact();
+		} catch (Throwable e) {
+			throw new IllegalStateException("Load fence failed", e);
+		}
+	}
+
+	private static int stamp(long sample)
+	{
+		return (int)(((sample + 1) & 0x3fffffff) << 1);
+	}
+
+	/**
+	 * Create (or recreate) the telemetry file with the given counters and ring size.
+	 */
+	public static Telemetry create(File file, int ringSlots, String... counterNames) throws IOException
+	{
+		int size = headerSize + counterNames.length * (nameSize + 8) + ringSlots * slotSize;
+
+		MappedByteBuffer map;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			raf.setLength(0);
+			raf.setLength(size);
+			map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		map.order(ByteOrder.LITTLE_ENDIAN);
+
+		map.putInt(0, MAGIC);
+		map.putInt(4, VERSION);
+		map.putInt(8, counterNames.length);
+		map.putInt(12, ringSlots);
+		for (int i=0; i<counterNames.length; i++)
+		{
+			byte[] name = counterNames[i].getBytes(StandardCharsets.US_ASCII);
+			int len = Math.min(name.length, nameSize-1);
+			for (int b=0; b<len; b++)
+			{
+				map.put(headerSize + i*nameSize + b, name[b]);
+			}
+		}
+		return new Telemetry(map, counterNames, ringSlots);
+	}
+
+	public int counterIndex(String name)
+	{
+		for (int i=0; i<counters; i++)
+		{
+			if (names[i].equals(name))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Start a consistent update; counters written before {@link #endUpdate} are seen together.
+	 */
+	public void beginUpdate()
+	{
+		writer.lock();
+		map.putLong(SEQ, ++seq);
+		storeFence();
+	}
+
+	public void endUpdate()
+	{
+		map.putLong(TIME, Utility.getFPGATime());
+		storeFence();
+		map.putLong(SEQ, ++seq);
+		writer.unlock();
+	}
+
+	public void setCounter(int idx, double value)
+	{
+		map.putDouble(valueBase + idx*8, value);
+	}
+
+	/**
+	 * Add a sample to the ring.  This takes no lock, so it can be called from any thread, inside an update or not.
+	 */
+	public void sample(int channel, double value)
+	{
+		long i = head.getAndIncrement();
+		map.putLong(HEAD, head.get());
+		int slot = ringBase + (int)(i % slots) * slotSize;
+		int stamp = stamp(i);
+		map.putInt(slot + STAMP, stamp | 1);
+		storeFence();
+		map.putLong(slot, Utility.getFPGATime());
+		map.putInt(slot + 8, channel);
+		map.putDouble(slot + 16, value);
+		storeFence();
+		map.putInt(slot + STAMP, stamp);
+	}
+
+	/**
+	 * Single counter update with its own seqlock section.
+	 */
+	public void putCounter(int idx, double value)
+	{
+		beginUpdate();
+		setCounter(idx, value);
+		endUpdate();
+	}
+
+	/**
+	 * Single sample, from a thread that is not updating counters (the playback Notifier); it never waits.
+	 */
+	public void putSample(int channel, double value)
+	{
+		sample(channel, value);
+	}
+
+	/*
+	 * Print the counters and the most recent samples of a telemetry file; an example of an out-of-process reader.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		File file = new File((args.length > 0) ? args[0] : defaultFileName);
+		MappedByteBuffer map;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+		{
+			map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		map.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION)
+		{
+			System.err.println(file + ": not a version " + VERSION + " telemetry file");
+			System.exit(1);
+		}
+		int counters = map.getInt(8);
+		int slots = map.getInt(12);
+		int valueBase = headerSize + counters * nameSize;
+		int ringBase = valueBase + counters * 8;
+
+		double[] values = new double[counters];
+		long s0;
+		do
+		{
+			while (((s0 = map.getLong(SEQ)) & 1) != 0)
+			{
+				Thread.sleep(1);
+			}
+			loadFence();
+			for (int i=0; i<counters; i++)
+			{
+				values[i] = map.getDouble(valueBase + i*8);
+			}
+			loadFence();
+		} while (map.getLong(SEQ) != s0);
+
+		// Each sample is copied and then checked against its slot stamp
+		long head = map.getLong(HEAD);
+		long first = Math.max(0, head - Math.min(10, slots));
+		int recent = (int)(head - first);
+		long[] times = new long[recent];
+		int[] channels = new int[recent];
+		double[] samples = new double[recent];
+		boolean[] valid = new boolean[recent];
+		for (int r=0; r<recent; r++)
+		{
+			int slot = ringBase + (int)((first + r) % slots) * slotSize;
+			int stamp = stamp(first + r);
+			if (map.getInt(slot + STAMP) != stamp)
+			{
+				continue;
+			}
+			loadFence();
+			times[r] = map.getLong(slot);
+			channels[r] = map.getInt(slot + 8);
+			samples[r] = map.getDouble(slot + 16);
+			loadFence();
+			valid[r] = (map.getInt(slot + STAMP) == stamp);
+		}
+
+		for (int i=0; i<counters; i++)
+		{
+			StringBuilder name = new StringBuilder();
+			for (int b=0; b<nameSize && map.get(headerSize + i*nameSize + b) != 0; b++)
+			{
+				name.append((char)map.get(headerSize + i*nameSize + b));
+			}
+			System.out.println(name + " = " + values[i]);
+		}
+
+		System.out.println(head + " samples written");
+		for (int r=0; r<recent; r++)
+		{
+			System.out.println(valid[r] ? times[r] + " [" + channels[r] + "] " + samples[r] :
+					"sample " + (first + r) + " being written or overwritten");
+		}
+	}
+}
@@ -0,0 +1,300 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**	The {@link ThreadConfig} class gives named robot threads a Linux scheduling policy and priority, and optionally
+ *  pins them to a core.  Settings are declared once with {@link #configure}; a thread then calls {@link #attach}
+ *  with its name, from inside the thread, the first time it runs (later calls cost a thread-local read).  Threads
+ *  that are not Java threads (such as the camera server's) are found by their /proc name with
+ *  {@link #attachNative}.
+ *
+ *  Java 8 cannot change a thread's scheduling, so the settings are applied with the chrt and taskset commands on the
+ *  thread's Linux task id, on a background thread so that the thread being configured is not held up.  Afterwards
+ *  the policy, priority and allowed cores are read back from /proc/self/task and compared with what was asked for;
+ *  a mismatch (for example, no permission to use real-time policies) is logged and shown on the dashboard as
+ *  "Threads/<name>/Configured".
+ *
+ *  {@link #report} reads the voluntary and involuntary context switch counts of every attached thread from /proc and
+ *  puts the involuntary switches since the previous report on the dashboard, so a preempted playback thread shows.
+ */
+
+public class ThreadConfig
+{
+	public enum Policy {OTHER, FIFO, RR};
+
+	private static class Settings
+	{
+		final String name;
+		final Policy policy;
+		final int priority;
+		final int cpu;
+		final List<Integer> tasks = new ArrayList<Integer>();
+		long lastInvoluntary;
+
+		Settings(String name, Policy policy, int priority, int cpu)
+		{
+			this.name = name;
+			this.policy = policy;
+			this.priority = priority;
+			this.cpu = cpu;
+		}
+	}
+
+	private static final Map<String, Settings> settings = new LinkedHashMap<String, Settings>();
+	private static final ThreadLocal<String> attached = new ThreadLocal<String>();
+
+	private static final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "ThreadConfig");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
+
+	/**
+	 * Declare the settings for a named thread.  A cpu of -1 leaves the thread free to run on any core.
+	 */
+	public static synchronized void configure(String name, Policy policy, int priority, int cpu)
+	{
+		settings.put(name, new Settings(name, policy, priority, cpu));
+	}
+
+	/**
+	 * Apply the named settings to the calling thread, once.
+	 */
+	public static void attach(String name)
+	{
+		if (name.equals(attached.get()))
+		{
+			return;
+		}
+		attached.set(name);
+		int tid = currentTid();
+		if (tid > 0)
+		{
+			worker.execute(() -> apply(name, tid));
+		}
+	}
+
+	/**
+	 * Apply the named settings to every task of this process whose /proc name starts with the given prefix.
+	 */
+	public static void attachNative(String name, String commPrefix)
+	{
+		worker.execute(() -> {
+			File[] tasks = new File("/proc/self/task").listFiles();
+			int found = 0;
+			if (tasks != null)
+			{
+				for (File task : tasks)
+				{
+					String comm = read(new File(task, "comm"));
+					if ((comm != null) && comm.trim().startsWith(commPrefix))
+					{
+						apply(name, Integer.parseInt(task.getName()));
+						found++;
+					}
+				}
+			}
+			if (found == 0)
+			{
+				Log.warn("No {} threads named {}*", name, commPrefix);
+			}
+		});
+	}
+
+	/**
+	 * Publish the context switches of every attached thread; involuntary switches are counted since the previous
+	 * report.
+	 */
+	public static void report()
+	{
+		worker.execute(() -> {
+			List<Settings> all;
+			synchronized (ThreadConfig.class)
+			{
+				all = new ArrayList<Settings>(settings.values());
+			}
+			for (Settings s : all)
+			{
+				long voluntary = 0;
+				long involuntary = 0;
+				List<Integer> tasks;
+				synchronized (s)
+				{
+					tasks = new ArrayList<Integer>(s.tasks);
+				}
+				for (int tid : tasks)
+				{
+					String status = read(new File("/proc/self/task/" + tid + "/status"));
+					voluntary += statusField(status, "voluntary_ctxt_switches:");
+					involuntary += statusField(status, "nonvoluntary_ctxt_switches:");
+				}
+				if (tasks.isEmpty())
+				{
+					continue;
+				}
+				long delta = involuntary - s.lastInvoluntary;
+				s.lastInvoluntary = involuntary;
+				SmartDashboard.putNumber("Threads/" + s.name + "/Voluntary Switches", voluntary);
+				SmartDashboard.putNumber("Threads/" + s.name + "/Involuntary Switches", delta);
+				Log.info("Thread {}: {} voluntary, {} involuntary context switches ({} since last report)",
+						s.name, voluntary, involuntary, delta);
+			}
+		});
+	}
+
+	/*
+	 * The Linux task id of the calling thread, from the /proc/thread-self link ("pid/task/tid").
+	 */
+	private static int currentTid()
+	{
+		try
+		{
+			String link = Files.readSymbolicLink(Paths.get("/proc/thread-self")).toString();
+			return Integer.parseInt(link.substring(link.lastIndexOf('/') + 1));
+		} catch (IOException | UnsupportedOperationException | NumberFormatException e) {
+			Log.warn("Cannot find the task id of thread {}: {}", Thread.currentThread().getName(), e);
+			return -1;
+		}
+	}
+
+	private static void apply(String name, int tid)
+	{
+		Settings s;
+		synchronized (ThreadConfig.class)
+		{
+			s = settings.get(name);
+		}
+		if (s == null)
+		{
+			Log.warn("No thread settings for {}", name);
+			return;
+		}
+		synchronized (s)
+		{
+			if (!s.tasks.contains(tid))
+			{
+				s.tasks.add(tid);
+			}
+		}
+
+		String policyFlag = (s.policy == Policy.FIFO) ? "-f" : (s.policy == Policy.RR) ? "-r" : "-o";
+		int priority = (s.policy == Policy.OTHER) ? 0 : s.priority;
+		run("chrt", policyFlag, "-p", Integer.toString(priority), Integer.toString(tid));
+		if (s.cpu >= 0)
+		{
+			run("taskset", "-p", "-c", Integer.toString(s.cpu), Integer.toString(tid));
+		}
+		verify(s, tid, priority);
+	}
+
+	/*
+	 * Read back the policy (field 41 of stat), real-time priority (field 40) and allowed cores.
+	 */
+	private static void verify(Settings s, int tid, int priority)
+	{
+		String stat = read(new File("/proc/self/task/" + tid + "/stat"));
+		String status = read(new File("/proc/self/task/" + tid + "/status"));
+		boolean ok = false;
+		String actual = "unknown";
+		if (stat != null && status != null)
+		{
+			String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+			int rtPriority = Integer.parseInt(fields[40 - 3]);
+			int policy = Integer.parseInt(fields[41 - 3]);
+			String cpus = statusText(status, "Cpus_allowed_list:");
+			Policy actualPolicy = (policy < Policy.values().length) ? Policy.values()[policy] : null;
+			actual = actualPolicy + " " + rtPriority + " cpus " + cpus;
+			ok = (actualPolicy == s.policy) && (rtPriority == priority) &&
+					((s.cpu < 0) || cpus.equals(Integer.toString(s.cpu)));
+		}
+		SmartDashboard.putBoolean("Threads/" + s.name + "/Configured", ok);
+		if (ok)
+		{
+			Log.info("Thread {} (task {}) is {}", s.name, tid, actual);
+		} else
+		{
+			Log.warn("Thread {} (task {}) asked for {} {} cpu {} but is {}", s.name, tid, s.policy, priority, s.cpu,
+					actual);
+		}
+	}
+
+	private static void run(String... command)
+	{
+		try
+		{
+			Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+			String output = new String(readAll(p), StandardCharsets.US_ASCII).trim();
+			if (!p.waitFor(1, TimeUnit.SECONDS) || p.exitValue() != 0)
+			{
+				Log.warn("{} failed: {}", String.join(" ", command), output);
+			}
+		} catch (IOException e) {
+			Log.warn("{}: {}", command[0], e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static byte[] readAll(Process p) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[512];
+		int n;
+		while ((n = p.getInputStream().read(buf)) > 0)
+		{
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private static String read(File file)
+	{
+		try
+		{
+			return new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static String statusText(String status, String key)
+	{
+		for (String line : status.split("\n"))
+		{
+			if (line.startsWith(key))
+			{
+				return line.substring(key.length()).trim();
+			}
+		}
+		return "";
+	}
+
+	private static long statusField(String status, String key)
+	{
+		if (status == null)
+		{
+			return 0;
+		}
+		try
+		{
+			return Long.parseLong(statusText(status, key));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package org.usfirst.frc.team1626.robot;
+
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.Utility;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**	The {@link TimelinePlayer} class plays an {@link ActuatorTimeline} during autonomous.  Each row is applied
+ *  straight to the actuators at its time offset, by a {@link Notifier} rescheduled for the next row, the same way
+ *  {@link ActionRecorder} schedules interpreted playback.  Nothing is decided while playing: a cycle is a table
+ *  lookup and the actuator commands.
+ *
+ *  The rows played are copied into the {@link OutputTrace}, and the mean and maximum difference between the scheduled
+ *  and actual time of a row are put on the dashboard (under "Auto/Timeline/") when playback stops.
+ *
+ *  The Notifier is only touched under the player's lock, and {@link #stop} clears it before stopping it, so a row
+ *  being played while playback is stopped does not schedule another.  The notifier is stopped outside the lock,
+ *  since stopping waits for a row in progress.
+ */
+
+public class TimelinePlayer
+{
+	private final RobotBase robot;
+	private final Actuators actuators;
+	private final OutputTrace trace;
+
+	private LatencyCompensation compensation;
+	private ActuatorTimeline timeline;
+	private Notifier notifier;	// guarded by this
+	private long playbackStart;
+	private int next;
+	private int previous;
+	private volatile long lastPlayedOffset = -1;
+
+	private int played;
+	private long sumError;
+	private long maxError;
+
+	public TimelinePlayer(RobotBase robot, Actuators actuators, OutputTrace trace)
+	{
+		this.robot = robot;
+		this.actuators = actuators;
+		this.trace = trace;
+	}
+
+	/**
+	 * Schedule rows earlier by the latency learned for timeline playback, and keep it learning.
+	 */
+	public void setCompensation(LatencyCompensation compensation)
+	{
+		this.compensation = compensation;
+	}
+
+	/**
+	 * Start playing from a time offset (microseconds) into the timeline, keeping every row at its original place
+	 * in the schedule.
+	 */
+	public void start(ActuatorTimeline timeline, long startOffset)
+	{
+		stop();
+		this.timeline = timeline;
+		next = timeline.indexOf(startOffset);
+		previous = -1;
+		lastPlayedOffset = -1;
+		played = 0;
+		sumError = 0;
+		maxError = 0;
+		if (compensation != null)
+		{
+			compensation.begin("Timeline");
+		}
+		playbackStart = Utility.getFPGATime() - startOffset;
+		Log.info("Playing timeline of {} rows from row {}", timeline.size(), next);
+		synchronized (this)
+		{
+			if (next < timeline.size())
+			{
+				notifier = new Notifier(this::step);
+				schedule();
+			}
+		}
+	}
+
+	public void stop()
+	{
+		Notifier stopping;
+		synchronized (this)
+		{
+			stopping = notifier;
+			notifier = null;
+		}
+		if (stopping == null)
+		{
+			return;
+		}
+		stopping.stop();
+		if (compensation != null)
+		{
+			compensation.end();
+		}
+
+		double mean = (played > 0) ? ((double)sumError) / played : 0.0;
+		SmartDashboard.putNumber("Auto/Timeline/Rows", played);
+		SmartDashboard.putNumber("Auto/Timeline/Mean Error", mean / 1000000.0);
+		SmartDashboard.putNumber("Auto/Timeline/Max Error", ((double)maxError) / 1000000.0);
+		Log.info("Timeline played {} rows, mean error {} us, max error {} us", played, (long)mean, maxError);
+	}
+
+	public synchronized boolean isPlaying()
+	{
+		return notifier != null;
+	}
+
+	public long getPlaybackStart()
+	{
+		return playbackStart;
+	}
+
+	/**
+	 * The time offset of the last row played, or -1 if none has been played since the last start.
+	 */
+	public long getLastPlayedOffset()
+	{
+		return lastPlayedOffset;
+	}
+
+	private void step()
+	{
+		ThreadConfig.attach("Playback");
+		long expected = playbackStart + timeline.getTime(next);
+		long now = Utility.getFPGATime();
+		long error = now - expected;
+		FlightEvents.playback(timeline.getTime(next), expected, now);
+
+		Object event = FlightEvents.begin(FlightEvents.ACTUATORS);
+		trace.beginCycle();
+		timeline.apply(next, previous, actuators);
+		timeline.trace(next, trace);
+		trace.endCycle();
+		FlightEvents.actuators(event, "Timeline", 1);
+
+		lastPlayedOffset = timeline.getTime(next);
+		played++;
+		sumError += Math.abs(error);
+		maxError = Math.max(maxError, Math.abs(error));
+
+		if (compensation != null)
+		{
+			compensation.add(lastPlayedOffset, error);
+		}
+
+		previous = next++;
+		if (next < timeline.size() && robot.isAutonomous() && robot.isEnabled())
+		{
+			synchronized (this)
+			{
+				if (notifier != null)
+				{
+					schedule();
+				}
+			}
+		}
+	}
+
+	/*
+	 * Called holding the lock, with the notifier set.
+	 */
+	private void schedule()
+	{
+		long deadline = playbackStart + timeline.getTime(next);
+		if (compensation != null)
+		{
+			deadline -= compensation.correction(timeline.getTime(next));
+		}
+		long delay = deadline - Utility.getFPGATime();
+		notifier.startSingle(Math.max(0, delay) / 1000000.0);
+	}
+}
@@ -0,0 +1,171 @@
+package org.usfirst.frc.team1626.robot;
+
+import java.util.Arrays;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**	The {@link TransitionTimer} class times the steps of a mode-transition hook (disabledInit, autonomousInit, ...)
+ *  against a budget, since the robot is not running its new mode until the hook returns.  The hook calls
+ *  {@link #start}, then {@link #lap} with a name at the end of each step, then {@link #end}.
+ *
+ *  Each step's time is put on the dashboard under "Transition/<name>/".  When the whole transition runs over its
+ *  budget, or a step over its own budget (if it was given one), the offending steps are named, slowest first, in
+ *  the log and in "Transition/<name>/Over Budget".  The budget can be changed on the dashboard at
+ *  "Transition/<name>/Budget", in seconds.
+ *
+ *  A timer is meant to be kept and reused for one hook; timing a transition does not allocate unless it is over
+ *  budget.  Each transition is also a {@link FlightEvents} mode transition event.
+ */
+
+public class TransitionTimer
+{
+	private static final int maxSteps = 16;
+
+	private final String name;
+	private final String prefix;
+	private final double defaultBudget;
+	private final String[] stepNames = new String[maxSteps];
+	private final String[] stepKeys = new String[maxSteps];
+	private final double[] stepBudgets = new double[maxSteps];
+	private final long[] stepTimes = new long[maxSteps];
+	private int known;
+	private long start;
+	private long last;
+	private double budget;
+	private int overruns;
+	private Object event;
+
+	public TransitionTimer(String name, double budget)
+	{
+		this.name = name;
+		this.prefix = "Transition/" + name + "/";
+		this.defaultBudget = budget;
+		this.budget = budget;
+		SmartDashboard.putNumber(prefix + "Budget", budget);
+	}
+
+	/**
+	 * Give a step a budget of its own.
+	 */
+	public TransitionTimer budget(String step, double seconds)
+	{
+		stepBudgets[slot(step)] = seconds;
+		return this;
+	}
+
+	public void start()
+	{
+		budget = SmartDashboard.getNumber(prefix + "Budget", defaultBudget);
+		Arrays.fill(stepTimes, 0L);
+		event = FlightEvents.begin(FlightEvents.TRANSITION);
+		start = System.nanoTime();
+		last = start;
+	}
+
+	/**
+	 * End the current step.  A step that is skipped in one run of the hook reads as zero.
+	 */
+	public void lap(String step)
+	{
+		long now = System.nanoTime();
+		stepTimes[slot(step)] += now - last;
+		last = now;
+	}
+
+	/**
+	 * End the transition and report it.  Returns the total time in seconds.
+	 */
+	public double end()
+	{
+		double total = seconds(last - start);
+		boolean over = total > budget;
+		int overSteps = 0;
+		for (int i=0; i<known; i++)
+		{
+			double t = seconds(stepTimes[i]);
+			SmartDashboard.putNumber(stepKeys[i], t);
+			if ((stepBudgets[i] > 0) && (t > stepBudgets[i]))
+			{
+				overSteps++;
+			}
+		}
+		SmartDashboard.putNumber(prefix + "Total", total);
+		FlightEvents.transition(event, name, over || (overSteps > 0));
+		event = null;
+
+		if (!over && overSteps == 0)
+		{
+			return total;
+		}
+
+		overruns++;
+		String report = report(over);
+		SmartDashboard.putNumber(prefix + "Overruns", overruns);
+		SmartDashboard.putString(prefix + "Over Budget", report);
+		Log.warn("{} took {} s (budget {} s): {}", name, total, budget, report);
+		return total;
+	}
+
+	public int getOverruns()
+	{
+		return overruns;
+	}
+
+	/*
+	 * The steps to blame, slowest first: all of them when the transition is over budget, otherwise the steps over
+	 * their own budgets.
+	 */
+	private String report(boolean over)
+	{
+		Integer[] order = new Integer[known];
+		for (int i=0; i<known; i++)
+		{
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(stepTimes[b], stepTimes[a]));
+
+		StringBuilder text = new StringBuilder();
+		for (int i : order)
+		{
+			double t = seconds(stepTimes[i]);
+			boolean stepOver = (stepBudgets[i] > 0) && (t > stepBudgets[i]);
+			if ((!over && !stepOver) || (stepTimes[i] == 0))
+			{
+				continue;
+			}
+			if (text.length() > 0)
+			{
+				text.append(", ");
+			}
+			text.append(stepNames[i]).append(' ').append(String.format("%.1f ms", t * 1000.0));
+			if (stepOver)
+			{
+				text.append(" (budget ").append(String.format("%.1f ms", stepBudgets[i] * 1000.0)).append(')');
+			}
+		}
+		return text.toString();
+	}
+
+	private int slot(String step)
+	{
+		for (int i=0; i<known; i++)
+		{
+			if (stepNames[i].equals(step))
+			{
+				return i;
+			}
+		}
+		if (known == maxSteps)
+		{
+			throw new IllegalStateException(name + ": more than " + maxSteps + " steps");
+		}
+		stepNames[known] = step;
+		stepKeys[known] = prefix + step;
+		return known++;
+	}
+
+	private static double seconds(long nanos)
+	{
+		return nanos / 1.0e9;
+	}
+}